@@ -0,0 +1,14 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.checkpoint")
+public class Checkpoint {
+
+    private String directory = "checkpoints";
+    private long interval = 30_000;
+}
@@ -0,0 +1,14 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.compaction")
+public class Compaction {
+
+    private long interval = 60_000;
+    private int batchSize = 500;
+}
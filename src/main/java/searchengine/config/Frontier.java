@@ -0,0 +1,17 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.frontier")
+public class Frontier {
+
+    private int expectedUrls = 100_000;
+    private int maxPagesInFlight = 512;
+    private boolean robots = true;
+    private boolean sitemaps = true;
+    private int maxSitemaps = 50;
+}
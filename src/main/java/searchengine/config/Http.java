@@ -12,4 +12,12 @@ public class Http {
     private String userAgent;
     private String referrer;
     private int timeout;
+    private long maxBodySize = 5 * 1024 * 1024;
+    private int initialConnectionsPerHost = 4;
+    private int maxConnectionsPerHost = 64;
+    private double requestsPerSecond = 5;
+    private double maxRequestsPerSecond = 50;
+    private int burst = 5;
+    private int targetLatency = 1000;
+    private double backoffFactor = 0.5;
 }
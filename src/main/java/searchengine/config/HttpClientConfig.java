@@ -0,0 +1,27 @@
+package searchengine.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Общий HTTP-клиент для обхода и индексации отдельных страниц. Клиент держит пул keep-alive
+ * соединений и по возможности договаривается о HTTP/2, поэтому TCP/TLS рукопожатие
+ * выполняется один раз на хост, а не на каждую страницу.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Bean
+    public HttpClient httpClient(Http http) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (http.getTimeout() > 0) {
+            builder.connectTimeout(Duration.ofMillis(http.getTimeout()));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,16 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.ingestion")
+public class Ingestion {
+
+    private String directory = "journal";
+    private int workers = 2;
+    private int batchSize = 50;
+    private int retainedJobs = 1000;
+}
@@ -0,0 +1,17 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.pipeline")
+public class Pipeline {
+
+    private int lemmaQueueCapacity = 256;
+    private int writeQueueCapacity = 256;
+    private int lemmatizers = 2;
+    private int writeBatchSize = 50;
+    private long lemmaFlushInterval = 5000;
+}
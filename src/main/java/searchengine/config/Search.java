@@ -0,0 +1,37 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.search")
+public class Search {
+
+    /**
+     * Потоки, по которым расходится поиск по нескольким сайтам.
+     */
+    private int threads = 4;
+    private int queueCapacity = 256;
+    /**
+     * Сколько миллисекунд запрос ждёт сайты; опоздавшие отменяются, и ответ помечается как неполный.
+     */
+    private long timeout = 2000;
+    /**
+     * Сколько пар (сайт, набор лемм) держит кэш выдачи; 0 выключает кэш.
+     */
+    private int cacheSize = 1000;
+    /**
+     * Выдача сайта длиннее этого числа страниц не кэшируется.
+     */
+    private int cacheMaxPages = 10_000;
+    /**
+     * Во сколько раз, за вычетом единицы, поднимается страница, где все слова запроса стоят подряд.
+     */
+    private float proximityBoost = 0.5f;
+    /**
+     * Сколько лучших страниц сайта переранжируется по близости слов запроса.
+     */
+    private int rerankDepth = 200;
+}
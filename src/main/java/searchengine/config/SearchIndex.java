@@ -0,0 +1,46 @@
+package searchengine.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "indexing.search-index")
+public class SearchIndex {
+
+    /**
+     * Читать списки страниц лемм из индекса; если выключено, поиск читает их из БД.
+     */
+    private boolean enabled = true;
+    /**
+     * Записывать позиции лемм для фразовых запросов, NEAR/k, учёта близости слов и сниппетов.
+     */
+    private boolean positions = true;
+    private Engine engine = Engine.MEMORY;
+    /**
+     * Каталог файлов сегментов для {@link Engine#SEGMENTS}.
+     */
+    private String directory = "index";
+    /**
+     * Сколько вхождений копится в памяти до записи нового сегмента.
+     */
+    private int flushPostings = 200_000;
+    private long flushInterval = 60_000;
+    /**
+     * Сколько соседних сегментов сливаются за раз.
+     */
+    private int mergeFactor = 8;
+    private long maxSegmentBytes = 1L << 30;
+
+    public enum Engine {
+        /**
+         * Все списки в куче.
+         */
+        MEMORY,
+        /**
+         * Неизменяемые файлы сегментов, отображённые в память, и фоновое слияние.
+         */
+        SEGMENTS
+    }
+}
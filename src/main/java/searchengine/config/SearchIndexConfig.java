@@ -0,0 +1,22 @@
+package searchengine.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import searchengine.index.InvertedIndex;
+import searchengine.index.SearchIndexEngine;
+import searchengine.index.SegmentIndex;
+
+/**
+ * Выбирает реализацию индекса, которую видят индексация и поиск. Обе реализации остаются бинами,
+ * но невыбранная не загружается и не принимает изменений.
+ */
+@Configuration
+public class SearchIndexConfig {
+
+    @Bean
+    @Primary
+    public SearchIndexEngine searchIndexEngine(SearchIndex settings, InvertedIndex memory, SegmentIndex segments) {
+        return settings.getEngine() == SearchIndex.Engine.SEGMENTS ? segments : memory;
+    }
+}
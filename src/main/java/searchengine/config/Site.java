@@ -8,4 +8,12 @@ import lombok.Setter;
 public class Site {
     private String url;
     private String name;
+    /**
+     * Максимальная глубина обхода от корня сайта, 0 — без ограничения.
+     */
+    private int maxDepth;
+    /**
+     * Максимальное число страниц сайта, 0 — без ограничения.
+     */
+    private int maxPages;
 }
@@ -1,28 +1,36 @@
 package searchengine.controllers;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import searchengine.dto.statistics.IndexingResponse;
+import searchengine.dto.statistics.IngestionResponse;
 import searchengine.dto.statistics.SearchResponse;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.services.IndexingServiceImpl;
+import searchengine.services.IngestionService;
 import searchengine.services.SearchService;
 import searchengine.services.StatisticsServiceImpl;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api")
 public class ApiController {
     private final StatisticsServiceImpl statisticsService;
     private final IndexingServiceImpl indexingService;
     private final SearchService searchService;
+    private final IngestionService ingestionService;
 
     public ApiController(StatisticsServiceImpl statisticsService,
                          IndexingServiceImpl indexingService,
-                         SearchService searchService) {
+                         SearchService searchService,
+                         IngestionService ingestionService) {
         this.statisticsService = statisticsService;
         this.indexingService = indexingService;
         this.searchService = searchService;
+        this.ingestionService = ingestionService;
     }
 
     @GetMapping("/statistics")
@@ -31,8 +39,9 @@ public class ApiController {
     }
 
     @GetMapping("/startIndexing")
-    public ResponseEntity<IndexingResponse> startIndexing() {
-        return ResponseEntity.status(HttpStatus.OK).body(indexingService.startIndexing());
+    public ResponseEntity<IndexingResponse> startIndexing(
+            @RequestParam(value = "incremental", defaultValue = "false") boolean incremental) {
+        return ResponseEntity.status(HttpStatus.OK).body(indexingService.startIndexing(incremental));
     }
 
     @GetMapping("/stopIndexing")
@@ -40,11 +49,31 @@ public class ApiController {
         return ResponseEntity.status(HttpStatus.OK).body(indexingService.stopIndexing());
     }
 
+    @GetMapping("/resumeIndexing")
+    public ResponseEntity<IndexingResponse> resumeIndexing() {
+        return ResponseEntity.status(HttpStatus.OK).body(indexingService.resumeIndexing());
+    }
+
     @PostMapping("/indexPage")
     public ResponseEntity<IndexingResponse> indexPage(@RequestParam("url") String url) {
         return ResponseEntity.status(HttpStatus.OK).body(indexingService.indexPage(url));
     }
 
+    @PostMapping("/ingest")
+    public ResponseEntity<IngestionResponse> ingest(@RequestParam("url") List<String> urls) {
+        return ResponseEntity.status(HttpStatus.OK).body(ingestionService.submit(urls));
+    }
+
+    @PostMapping(value = "/ingest", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<IngestionResponse> ingestJson(@RequestBody List<String> urls) {
+        return ResponseEntity.status(HttpStatus.OK).body(ingestionService.submit(urls));
+    }
+
+    @GetMapping("/ingest/{jobId}")
+    public ResponseEntity<IngestionResponse> ingestionStatus(@PathVariable("jobId") String jobId) {
+        return ResponseEntity.status(HttpStatus.OK).body(ingestionService.status(jobId));
+    }
+
     @DeleteMapping()
     public ResponseEntity<IndexingResponse> deleteAllDataInBD() {
         return ResponseEntity.status(HttpStatus.OK).body(indexingService.deleteAllDataInBD());
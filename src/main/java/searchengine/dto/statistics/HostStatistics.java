@@ -0,0 +1,13 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+@Data
+public class HostStatistics {
+    private String host;
+    private int concurrencyLimit;
+    private int inFlight;
+    private double requestsPerSecond;
+    private long averageLatency;
+    private long throttled;
+}
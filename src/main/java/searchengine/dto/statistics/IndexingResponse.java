@@ -8,4 +8,8 @@ import lombok.*;
 public class IndexingResponse {
     private boolean result;
     private String error;
+    /**
+     * Время удаления старых данных перед индексацией или при полной очистке, мс.
+     */
+    private Long cleanupTime;
 }
@@ -0,0 +1,25 @@
+package searchengine.dto.statistics;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestionResponse {
+    private boolean result;
+    private String error;
+    private String jobId;
+    /**
+     * QUEUED, INDEXING или INDEXED.
+     */
+    private String status;
+    private Integer total;
+    private Integer processed;
+    private Integer failed;
+    /**
+     * Первые ошибки задания в виде «адрес: причина».
+     */
+    private List<String> errors;
+}
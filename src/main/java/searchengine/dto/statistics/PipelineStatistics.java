@@ -0,0 +1,12 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+@Data
+public class PipelineStatistics {
+    private int lemmaQueue;
+    private int writeQueue;
+    private long fetched;
+    private long lemmatized;
+    private long saved;
+}
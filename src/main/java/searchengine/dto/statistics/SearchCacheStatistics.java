@@ -0,0 +1,12 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+@Data
+public class SearchCacheStatistics {
+    private int size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+}
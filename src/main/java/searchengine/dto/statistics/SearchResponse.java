@@ -12,4 +12,8 @@ public class SearchResponse {
     private Integer count;
     private List<Item> data;
     private String error;
+    /**
+     * {@code true}, если часть сайтов не успела ответить и в выдачу не попала.
+     */
+    private Boolean partial;
 }
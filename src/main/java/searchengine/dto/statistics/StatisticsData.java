@@ -7,5 +7,6 @@ import java.util.List;
 @Data
 public class StatisticsData {
     private TotalStatistics total;
+    private SearchCacheStatistics searchCache;
     private List<DetailedStatisticsItem> detailed;
 }
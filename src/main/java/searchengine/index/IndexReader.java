@@ -0,0 +1,29 @@
+package searchengine.index;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Источник списков страниц лемм для поиска. Метаданные сайтов и страниц по-прежнему читаются из БД.
+ */
+public interface IndexReader {
+
+    /**
+     * Готов ли индекс отвечать на запросы; пока он не готов, поиск идёт через БД.
+     */
+    boolean isReady();
+
+    /**
+     * Страницы сайта, на которых встречаются все леммы.
+     *
+     * @return сумма рангов лемм по id страницы
+     */
+    Map<Integer, Float> search(int siteId, Collection<String> lemmas);
+
+    /**
+     * Заголовок страницы, если индекс хранит его сам, иначе {@code null}.
+     */
+    default String storedTitle(int pageId) {
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+package searchengine.index;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Изменения индекса, сделанные одной транзакцией. Страница всегда передаётся целиком: с полным
+ * набором лемм и рангов и с леммами, которые с неё пропали, поэтому индекс может и поправить
+ * отдельные списки, и заменить страницу как неделимый документ.
+ */
+public class IndexUpdate {
+    private final List<PageChange> changes = new ArrayList<>();
+
+    public void putPage(int siteId, int pageId, String title, Map<String, Float> lemmas, Collection<String> removedLemmas) {
+        changes.add(new PageChange(siteId, pageId, title, lemmas, removedLemmas));
+    }
+
+    /**
+     * Скрывает страницу целиком, например помеченную надгробием.
+     */
+    public void deletePage(int pageId) {
+        changes.add(new PageChange(0, pageId, null, null, List.of()));
+    }
+
+    public List<PageChange> getChanges() {
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Getter
+    public static final class PageChange {
+        private final int siteId;
+        private final int pageId;
+        private final String title;
+        /**
+         * {@code null} для удалённой страницы.
+         */
+        private final Map<String, Float> lemmas;
+        private final Collection<String> removedLemmas;
+
+        private PageChange(int siteId, int pageId, String title, Map<String, Float> lemmas, Collection<String> removedLemmas) {
+            this.siteId = siteId;
+            this.pageId = pageId;
+            this.title = title;
+            this.lemmas = lemmas;
+            this.removedLemmas = removedLemmas;
+        }
+
+        public boolean isDeleted() {
+            return lemmas == null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package searchengine.index;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchIndex;
+import searchengine.repository.BulkIndexRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Инвертированный индекс в памяти: для каждой пары (сайт, лемма) — сжатый {@link PostingList} страниц
+ * с рангами. При старте индекс загружается из {@code search_index} одним потоковым запросом, затем
+ * обновляется после фиксации каждой транзакции индексации. Изменения копятся рядом со списком и
+ * вливаются в него при первом чтении. Страницы, помеченные надгробием, отсекаются общим битовым множеством.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InvertedIndex implements SearchIndexEngine {
+
+    private final SearchIndex settings;
+    private final BulkIndexRepository bulkIndexRepository;
+    private final Map<Integer, Map<String, Postings>> sites = new ConcurrentHashMap<>();
+    private final BitSet deleted = new BitSet();
+    private final ReadWriteLock deletedLock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!settings.isEnabled() || settings.getEngine() != SearchIndex.Engine.MEMORY) {
+            return;
+        }
+        Thread thread = new Thread(this::load, "inverted-index-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Пересекает списки страниц лемм сайта, начиная с самого короткого.
+     */
+    @Override
+    public Map<Integer, Float> search(int siteId, Collection<String> lemmas) {
+        Map<String, Postings> site = sites.get(siteId);
+        if (site == null || lemmas.isEmpty()) {
+            return Map.of();
+        }
+        List<PostingList> lists = new ArrayList<>(lemmas.size());
+        deletedLock.readLock().lock();
+        try {
+            for (String lemma : lemmas) {
+                Postings postings = site.get(lemma);
+                if (postings == null) {
+                    return Map.of();
+                }
+                lists.add(postings.snapshot(deleted::get));
+            }
+            lists.sort(Comparator.comparingInt(PostingList::size));
+            return PostingList.intersect(lists, deleted::get);
+        } finally {
+            deletedLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void apply(IndexUpdate update) {
+        if (!settings.isEnabled() || settings.getEngine() != SearchIndex.Engine.MEMORY) {
+            return;
+        }
+        for (IndexUpdate.PageChange change : update.getChanges()) {
+            if (change.isDeleted()) {
+                deletedLock.writeLock().lock();
+                try {
+                    deleted.set(change.getPageId());
+                } finally {
+                    deletedLock.writeLock().unlock();
+                }
+                continue;
+            }
+            change.getLemmas().forEach((lemma, rank) -> postings(change.getSiteId(), lemma).add(change.getPageId(), rank));
+            Map<String, Postings> site = sites.get(change.getSiteId());
+            for (String lemma : change.getRemovedLemmas()) {
+                Postings postings = site == null ? null : site.get(lemma);
+                if (postings != null) {
+                    postings.remove(change.getPageId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clearSite(int siteId) {
+        sites.remove(siteId);
+    }
+
+    @Override
+    public void clear() {
+        sites.clear();
+        deletedLock.writeLock().lock();
+        try {
+            deleted.clear();
+        } finally {
+            deletedLock.writeLock().unlock();
+        }
+    }
+
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Map<String, Postings> site : sites.values()) {
+            for (Postings postings : site.values()) {
+                bytes += postings.list.memoryBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        try {
+            PostingLoader loader = new PostingLoader();
+            bulkIndexRepository.forEachPosting(loader::accept);
+            loader.flush();
+            ready = true;
+            log.info("Инвертированный индекс загружен за {} мс: {} лемм, {} вхождений, {} КБ",
+                    System.currentTimeMillis() - start, loader.lemmas, loader.postings, memoryBytes() / 1024);
+        } catch (Exception e) {
+            log.error("Не удалось загрузить инвертированный индекс, поиск будет читать списки страниц из БД: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    private Postings postings(int siteId, String lemma) {
+        return sites.computeIfAbsent(siteId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(lemma, key -> new Postings());
+    }
+
+    /**
+     * Собирает строки загрузки, упорядоченные по лемме и странице, в списки.
+     */
+    private final class PostingLoader {
+        private int siteId;
+        private String lemma;
+        private PostingList.Builder builder;
+        private long lemmas;
+        private long postings;
+
+        private void accept(int siteId, String lemma, int pageId, float rank) {
+            if (builder == null || siteId != this.siteId || !lemma.equals(this.lemma)) {
+                flush();
+                this.siteId = siteId;
+                this.lemma = lemma;
+                this.builder = PostingList.builder(16);
+            }
+            builder.add(pageId, rank);
+            postings++;
+        }
+
+        private void flush() {
+            if (builder != null) {
+                postings(siteId, lemma).load(builder.build());
+                lemmas++;
+                builder = null;
+            }
+        }
+    }
+
+    /**
+     * Список страниц леммы и ещё не влитые в него изменения.
+     */
+    private static final class Postings {
+        private volatile PostingList list = PostingList.EMPTY;
+        private TreeMap<Integer, Float> added;
+        private Set<Integer> removed;
+
+        private synchronized void load(PostingList base) {
+            list = base;
+        }
+
+        private synchronized void add(int pageId, float rank) {
+            if (removed != null) {
+                removed.remove(pageId);
+            }
+            if (added == null) {
+                added = new TreeMap<>();
+            }
+            added.put(pageId, rank);
+        }
+
+        private synchronized void remove(int pageId) {
+            if (added != null) {
+                added.remove(pageId);
+            }
+            if (removed == null) {
+                removed = new HashSet<>();
+            }
+            removed.add(pageId);
+        }
+
+        private synchronized PostingList snapshot(IntPredicate deleted) {
+            if (added == null && removed == null) {
+                return list;
+            }
+            Set<Integer> skipped = removed == null ? Set.of() : removed;
+            Iterator<Map.Entry<Integer, Float>> pending = added == null
+                    ? Collections.emptyIterator()
+                    : added.entrySet().iterator();
+            PostingList.Builder builder = PostingList.builder(list.size() + (added == null ? 0 : added.size()));
+            PostingList.Cursor cursor = list.cursor();
+            int page = cursor.next();
+            Map.Entry<Integer, Float> next = pending.hasNext() ? pending.next() : null;
+            while (page != PostingList.NO_MORE_PAGES || next != null) {
+                if (next == null || page < next.getKey()) {
+                    if (!skipped.contains(page) && !deleted.test(page)) {
+                        builder.add(page, cursor.rank());
+                    }
+                    page = cursor.next();
+                } else {
+                    if (page == next.getKey()) {
+                        page = cursor.next();
+                    }
+                    if (!deleted.test(next.getKey())) {
+                        builder.add(next.getKey(), next.getValue());
+                    }
+                    next = pending.hasNext() ? pending.next() : null;
+                }
+            }
+            list = builder.build();
+            added = null;
+            removed = null;
+            return list;
+        }
+    }
+}
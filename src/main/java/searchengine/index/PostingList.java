@@ -0,0 +1,302 @@
+package searchengine.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Неизменяемый список страниц одной леммы, упорядоченный по id страницы. Id хранятся разностями
+ * в varint блоками по {@link #BLOCK_SIZE}: для каждого блока отдельно известны первый id и смещение
+ * его разностей, поэтому курсор перескакивает ненужные блоки галопирующим поиском и распаковывает
+ * только тот блок, где может лежать искомая страница. Ранги лежат рядом, в порядке страниц.
+ * Список читается одинаково из массивов в куче и из отображённого в память файла сегмента.
+ */
+public final class PostingList {
+    public static final int BLOCK_SIZE = 128;
+    public static final int NO_MORE_PAGES = Integer.MAX_VALUE;
+    public static final PostingList EMPTY = new Builder(0).build();
+
+    private final int size;
+    private final ByteBuffer data;
+    private final IntBuffer blockFirst;
+    private final IntBuffer blockOffset;
+    private final FloatBuffer ranks;
+
+    private PostingList(int size, ByteBuffer data, IntBuffer blockFirst, IntBuffer blockOffset, FloatBuffer ranks) {
+        this.size = size;
+        this.data = data;
+        this.blockFirst = blockFirst;
+        this.blockOffset = blockOffset;
+        this.ranks = ranks;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long memoryBytes() {
+        return data.capacity() + (long) (blockFirst.capacity() + blockOffset.capacity() + ranks.capacity()) * Integer.BYTES;
+    }
+
+    /**
+     * Записывает список в формате, который читает {@link #read(ByteBuffer, int)}.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        int blocks = blockFirst.capacity();
+        out.writeInt(size);
+        out.writeInt(blocks);
+        out.writeInt(data.capacity());
+        for (int i = 0; i < blocks; i++) {
+            out.writeInt(blockFirst.get(i));
+        }
+        for (int i = 0; i < blocks; i++) {
+            out.writeInt(blockOffset.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeFloat(ranks.get(i));
+        }
+        byte[] bytes = new byte[data.capacity()];
+        data.duplicate().position(0).get(bytes);
+        out.write(bytes);
+    }
+
+    /**
+     * Список, лежащий в {@code buffer} с позиции {@code position}, без копирования данных.
+     */
+    public static PostingList read(ByteBuffer buffer, int position) {
+        int size = buffer.getInt(position);
+        int blocks = buffer.getInt(position + 4);
+        int dataLength = buffer.getInt(position + 8);
+        int offset = position + 12;
+        IntBuffer blockFirst = slice(buffer, offset, blocks * Integer.BYTES).asIntBuffer();
+        offset += blocks * Integer.BYTES;
+        IntBuffer blockOffset = slice(buffer, offset, blocks * Integer.BYTES).asIntBuffer();
+        offset += blocks * Integer.BYTES;
+        FloatBuffer ranks = slice(buffer, offset, size * Float.BYTES).asFloatBuffer();
+        offset += size * Float.BYTES;
+        return new PostingList(size, slice(buffer, offset, dataLength), blockFirst, blockOffset, ranks);
+    }
+
+    /**
+     * Пересечение галопом: самый короткий список ведёт, остальные курсоры перепрыгивают к его странице.
+     *
+     * @param lists   списки по возрастанию длины
+     * @param deleted страницы, которые нужно пропустить
+     * @return сумма рангов по id страницы
+     */
+    public static Map<Integer, Float> intersect(List<PostingList> lists, IntPredicate deleted) {
+        Map<Integer, Float> result = new HashMap<>();
+        if (lists.isEmpty() || lists.get(0).isEmpty()) {
+            return result;
+        }
+        Cursor[] cursors = new Cursor[lists.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = lists.get(i).cursor();
+        }
+        int page = cursors[0].next();
+        while (page != NO_MORE_PAGES) {
+            boolean matched = true;
+            for (int i = 1; i < cursors.length; i++) {
+                int found = cursors[i].advance(page);
+                if (found != page) {
+                    page = cursors[0].advance(found);
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                if (!deleted.test(page)) {
+                    float rank = 0;
+                    for (Cursor cursor : cursors) {
+                        rank += cursor.rank();
+                    }
+                    result.put(page, rank);
+                }
+                page = cursors[0].next();
+            }
+        }
+        return result;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        return buffer.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    /**
+     * Собирает список из страниц, добавленных строго по возрастанию id.
+     */
+    public static final class Builder {
+        private byte[] data;
+        private int[] blockFirst;
+        private int[] blockOffset;
+        private float[] ranks;
+        private int size;
+        private int length;
+        private int last = -1;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(1, expectedSize);
+            this.data = new byte[capacity];
+            this.ranks = new float[capacity];
+            this.blockFirst = new int[capacity / BLOCK_SIZE + 1];
+            this.blockOffset = new int[capacity / BLOCK_SIZE + 1];
+        }
+
+        public Builder add(int pageId, float rank) {
+            if (pageId <= last) {
+                throw new IllegalArgumentException("Страницы должны добавляться по возрастанию id: " + pageId + " после " + last);
+            }
+            if (size == ranks.length) {
+                ranks = Arrays.copyOf(ranks, size * 2);
+            }
+            int block = size / BLOCK_SIZE;
+            if (size % BLOCK_SIZE == 0) {
+                if (block == blockFirst.length) {
+                    blockFirst = Arrays.copyOf(blockFirst, block * 2);
+                    blockOffset = Arrays.copyOf(blockOffset, block * 2);
+                }
+                blockFirst[block] = pageId;
+                blockOffset[block] = length;
+            } else {
+                writeVarint(pageId - last);
+            }
+            ranks[size++] = rank;
+            last = pageId;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public PostingList build() {
+            int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            return new PostingList(size, ByteBuffer.wrap(Arrays.copyOf(data, length)),
+                    IntBuffer.wrap(Arrays.copyOf(blockFirst, blocks)), IntBuffer.wrap(Arrays.copyOf(blockOffset, blocks)),
+                    FloatBuffer.wrap(Arrays.copyOf(ranks, size)));
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    /**
+     * Проход по списку вперёд. До первого {@link #next()} или {@link #advance(int)} курсор стоит перед началом.
+     */
+    public final class Cursor {
+        private int index = -1;
+        private int page = -1;
+        private int offset;
+
+        public int page() {
+            return page;
+        }
+
+        public float rank() {
+            return ranks.get(index);
+        }
+
+        /**
+         * @return следующая страница или {@link #NO_MORE_PAGES}
+         */
+        public int next() {
+            if (index + 1 >= size) {
+                index = size;
+                return page = NO_MORE_PAGES;
+            }
+            index++;
+            if (index % BLOCK_SIZE == 0) {
+                int block = index / BLOCK_SIZE;
+                offset = blockOffset.get(block);
+                return page = blockFirst.get(block);
+            }
+            return page += readVarint();
+        }
+
+        /**
+         * Переходит к первой странице с id не меньше {@code target}.
+         *
+         * @return найденная страница или {@link #NO_MORE_PAGES}
+         */
+        public int advance(int target) {
+            if (page >= target) {
+                return page;
+            }
+            int current = Math.max(0, index) / BLOCK_SIZE;
+            int block = findBlock(current, target);
+            if (block > current || index < 0) {
+                index = block * BLOCK_SIZE - 1;
+            }
+            int found;
+            do {
+                found = next();
+            } while (found < target);
+            return found;
+        }
+
+        /**
+         * Последний блок, начинающийся не позже {@code target}: сначала шаги удваиваются, затем двоичный поиск.
+         */
+        private int findBlock(int from, int target) {
+            int blocks = blockFirst.capacity();
+            if (from + 1 >= blocks || blockFirst.get(from + 1) > target) {
+                return from;
+            }
+            int low = from + 1;
+            int step = 1;
+            while (low + step < blocks && blockFirst.get(low + step) <= target) {
+                low += step;
+                step <<= 1;
+            }
+            int high = Math.min(blocks - 1, low + step);
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (blockFirst.get(middle) <= target) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte current;
+            do {
+                current = data.get(offset++);
+                value |= (current & 0x7F) << shift;
+                shift += 7;
+            } while (current < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package searchengine.index;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Реализация индекса, которую обновляет индексация. Какая из них используется, задаёт
+ * {@code indexing.search-index.engine}.
+ */
+public interface SearchIndexEngine extends IndexReader {
+
+    void apply(IndexUpdate update);
+
+    void clearSite(int siteId);
+
+    void clear();
+
+    /**
+     * Применяет изменения после фиксации текущей транзакции или сразу, если транзакции нет.
+     */
+    default void applyAfterCommit(IndexUpdate update) {
+        if (update.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(update);
+                }
+            });
+        } else {
+            apply(update);
+        }
+    }
+}
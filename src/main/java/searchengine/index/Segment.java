@@ -0,0 +1,121 @@
+package searchengine.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Неизменяемый сегмент индекса, отображённый в память. В куче держится только словарь лемм,
+ * списки страниц и заголовки читаются прямо из отображения. Страницы из более старых сегментов,
+ * заменённые позже, отсекаются при чтении по поколению сегмента.
+ */
+final class Segment {
+    final String name;
+    final long generation;
+    final long sizeBytes;
+    final Map<Integer, Map<String, Integer>> dictionary;
+    final int pageCount;
+    private final MappedByteBuffer buffer;
+    private final int pageIdsOffset;
+    private final int titleOffsetsOffset;
+    private final int titlesOffset;
+
+    private Segment(String name, long generation, long sizeBytes, MappedByteBuffer buffer,
+                    Map<Integer, Map<String, Integer>> dictionary, int pageCount, int pageIdsOffset) {
+        this.name = name;
+        this.generation = generation;
+        this.sizeBytes = sizeBytes;
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+        this.pageCount = pageCount;
+        this.pageIdsOffset = pageIdsOffset;
+        this.titleOffsetsOffset = pageIdsOffset + pageCount * Integer.BYTES;
+        this.titlesOffset = titleOffsetsOffset + (pageCount + 1) * Integer.BYTES;
+    }
+
+    static Segment open(Path file, long generation) throws IOException {
+        MappedByteBuffer buffer;
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int end = (int) size;
+        if (size < 16 || buffer.getInt(0) != SegmentWriter.MAGIC || buffer.getInt(end - 4) != SegmentWriter.MAGIC) {
+            throw new IOException("Файл " + file + " не является сегментом индекса");
+        }
+        int dictionaryOffset = buffer.getInt(end - 12);
+        int pagesOffset = buffer.getInt(end - 8);
+
+        ByteBuffer reader = buffer.duplicate().position(dictionaryOffset);
+        int entries = reader.getInt();
+        Map<Integer, Map<String, Integer>> dictionary = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            int siteId = reader.getInt();
+            byte[] lemma = new byte[reader.getShort() & 0xFFFF];
+            reader.get(lemma);
+            dictionary.computeIfAbsent(siteId, id -> new HashMap<>())
+                    .put(new String(lemma, StandardCharsets.UTF_8), reader.getInt());
+        }
+        String name = file.getFileName().toString();
+        return new Segment(name, generation, size, buffer, dictionary, buffer.getInt(pagesOffset), pagesOffset + 4);
+    }
+
+    /**
+     * @return {@code null}, если леммы на страницах сайта в этом сегменте нет
+     */
+    PostingList postings(int siteId, String lemma) {
+        Map<String, Integer> site = dictionary.get(siteId);
+        Integer offset = site == null ? null : site.get(lemma);
+        return offset == null ? null : PostingList.read(buffer, offset);
+    }
+
+    boolean containsPage(int pageId) {
+        return indexOfPage(pageId) >= 0;
+    }
+
+    String title(int pageId) {
+        int index = indexOfPage(pageId);
+        return index < 0 ? null : titleAt(index);
+    }
+
+    String titleAt(int index) {
+        int from = buffer.getInt(titleOffsetsOffset + index * Integer.BYTES);
+        int to = buffer.getInt(titleOffsetsOffset + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[to - from];
+        buffer.get(titlesOffset + from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int pageId(int index) {
+        return buffer.getInt(pageIdsOffset + index * Integer.BYTES);
+    }
+
+    private int indexOfPage(int pageId) {
+        int low = 0;
+        int high = pageCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int current = pageId(middle);
+            if (current < pageId) {
+                low = middle + 1;
+            } else if (current > pageId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (поколение " + generation + ", " + sizeBytes + " байт)";
+    }
+}
@@ -0,0 +1,775 @@
+package searchengine.index;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchIndex;
+import searchengine.repository.BulkIndexRepository;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+/**
+ * Индекс из неизменяемых сегментов на диске. Изменения копятся в памяти и по объёму или по таймеру
+ * пишутся новым сегментом; соседние мелкие сегменты сливаются в фоне. Набор сегментов фиксируется
+ * файлом {@code segments_<n>}, который пишется во временный и атомарно переименовывается.
+ * <p>
+ * Каждый сегмент и буфер в памяти имеют поколение. Страница, заменённая или удалённая позже,
+ * отсекается во всех сегментах старше поколения замены, поэтому страница всегда берётся целиком
+ * из самого нового источника. Содержимое буфера в памяти не журналируется: если приложение
+ * остановилось не штатно, индекс пересобирается из БД, которая остаётся основным хранилищем.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SegmentIndex implements SearchIndexEngine {
+    private static final String LOCK_FILE = "write.lock";
+    private static final String COMMIT_PREFIX = "segments_";
+    private static final String SEGMENT_PREFIX = "seg_";
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final int COMMIT_MAGIC = 0x53434d54;
+    private static final long DELETED = Long.MAX_VALUE;
+    /**
+     * Поколение буфера, пока не прочитана точка фиксации: заменённые до открытия страницы
+     * отсекаются во всех сегментах, а при открытии получают настоящее поколение.
+     */
+    private static final long PENDING = Long.MAX_VALUE - 1;
+    /**
+     * Оценки сверху для нарезки пересборки на сегменты: байт на индекс (ранг, id страницы и доля словаря)
+     * и на страницу (id, смещение и заголовок).
+     */
+    private static final long REBUILD_POSTING_BYTES = 16;
+    private static final long REBUILD_PAGE_BYTES = 512;
+
+    private final SearchIndex settings;
+    private final BulkIndexRepository bulkIndexRepository;
+    /**
+     * Страница отсекается в сегментах с поколением меньше значения.
+     */
+    private final Map<Integer, Long> deletedBefore = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> clearedSites = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private ScheduledExecutorService maintenance;
+    private Path directory;
+    private volatile List<Segment> segments = List.of();
+    private volatile boolean ready;
+    private Memtable memtable = new Memtable(PENDING);
+    private Memtable flushing;
+    private volatile long commitNumber;
+    private long fileCounter;
+    private long epoch;
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void open() {
+        if (!isActive()) {
+            return;
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.execute(this::load);
+    }
+
+    @Override
+    public Map<Integer, Float> search(int siteId, Collection<String> lemmas) {
+        if (lemmas.isEmpty()) {
+            return Map.of();
+        }
+        List<Segment> current;
+        List<Memtable> buffers = new ArrayList<>(2);
+        synchronized (this) {
+            current = segments;
+            if (flushing != null) {
+                buffers.add(flushing);
+            }
+            buffers.add(memtable);
+        }
+        Map<Integer, Float> found = new HashMap<>();
+        for (Segment segment : current) {
+            if (isCleared(siteId, segment.generation)) {
+                continue;
+            }
+            List<PostingList> lists = new ArrayList<>(lemmas.size());
+            for (String lemma : lemmas) {
+                PostingList postings = segment.postings(siteId, lemma);
+                if (postings == null) {
+                    lists = null;
+                    break;
+                }
+                lists.add(postings);
+            }
+            if (lists != null) {
+                lists.sort(Comparator.comparingInt(PostingList::size));
+                found.putAll(PostingList.intersect(lists, dead(segment.generation)));
+            }
+        }
+        for (Memtable buffer : buffers) {
+            if (!isCleared(siteId, buffer.generation)) {
+                found.putAll(buffer.search(siteId, lemmas, dead(buffer.generation)));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String storedTitle(int pageId) {
+        Memtable current;
+        Memtable frozen;
+        List<Segment> snapshot;
+        synchronized (this) {
+            current = memtable;
+            frozen = flushing;
+            snapshot = segments;
+        }
+        String title = current.title(pageId);
+        if (title == null && frozen != null && !dead(frozen.generation).test(pageId)) {
+            title = frozen.title(pageId);
+        }
+        for (int i = snapshot.size() - 1; i >= 0 && title == null; i--) {
+            Segment segment = snapshot.get(i);
+            if (!dead(segment.generation).test(pageId)) {
+                title = segment.title(pageId);
+            }
+        }
+        return title;
+    }
+
+    @Override
+    public void apply(IndexUpdate update) {
+        if (!isActive()) {
+            return;
+        }
+        boolean full;
+        synchronized (this) {
+            for (IndexUpdate.PageChange change : update.getChanges()) {
+                if (change.isDeleted()) {
+                    deletedBefore.put(change.getPageId(), DELETED);
+                    memtable.remove(change.getPageId());
+                } else if (!Objects.equals(deletedBefore.get(change.getPageId()), DELETED)) {
+                    deletedBefore.put(change.getPageId(), memtable.generation);
+                    memtable.put(change);
+                }
+            }
+            full = memtable.postingCount() >= settings.getFlushPostings();
+        }
+        if (full && ready && flushQueued.compareAndSet(false, true)) {
+            maintenance.execute(this::flush);
+        }
+    }
+
+    @Override
+    public void clearSite(int siteId) {
+        if (!isActive()) {
+            return;
+        }
+        synchronized (this) {
+            clearedSites.put(siteId, memtable.generation);
+            memtable.removeSite(siteId);
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (!isActive()) {
+            return;
+        }
+        synchronized (this) {
+            epoch++;
+            segments = List.of();
+            flushing = null;
+            memtable = new Memtable(memtable.generation);
+            deletedBefore.clear();
+            clearedSites.clear();
+        }
+        if (ready) {
+            maintenance.execute(() -> {
+                try {
+                    commit();
+                } catch (IOException e) {
+                    log.error("Не удалось зафиксировать очистку индекса сегментов: {}", e.getMessage(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Дописывает буфер в сегмент и фиксирует набор сегментов, чтобы следующий запуск не пересобирал индекс.
+     */
+    @PreDestroy
+    public void close() {
+        if (maintenance == null) {
+            return;
+        }
+        maintenance.shutdown();
+        try {
+            if (!maintenance.awaitTermination(30, TimeUnit.SECONDS) || !ready) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (flush()) {
+            try {
+                Files.deleteIfExists(directory.resolve(LOCK_FILE));
+            } catch (IOException e) {
+                log.warn("Не удалось снять блокировку индекса сегментов: {}", e.getMessage());
+            }
+        }
+    }
+
+    private boolean isActive() {
+        return settings.isEnabled() && settings.getEngine() == SearchIndex.Engine.SEGMENTS;
+    }
+
+    private IntPredicate dead(long generation) {
+        return pageId -> deletedBefore.getOrDefault(pageId, 0L) > generation;
+    }
+
+    private boolean isCleared(int siteId, long generation) {
+        return clearedSites.getOrDefault(siteId, 0L) > generation;
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        try {
+            directory = Path.of(settings.getDirectory());
+            Files.createDirectories(directory);
+            Path lock = directory.resolve(LOCK_FILE);
+            long restored = Files.exists(lock) ? 0 : readCommit();
+            boolean clean = restored > 0;
+            if (!clean) {
+                log.warn("Индекс сегментов не был закрыт штатно или не найден, он будет пересобран из БД");
+                removeUnreferenced(List.of());
+            }
+            Files.writeString(lock, String.valueOf(ProcessHandle.current().pid()));
+            long generation = clean ? restored : 2;
+            synchronized (this) {
+                deletedBefore.replaceAll((pageId, value) -> value == PENDING ? generation : value);
+                clearedSites.replaceAll((siteId, value) -> value == PENDING ? generation : value);
+                memtable.generation = generation;
+            }
+            if (!clean) {
+                rebuild(generation - 1);
+            }
+            ready = true;
+            maintenance.scheduleWithFixedDelay(this::flush, settings.getFlushInterval(), settings.getFlushInterval(),
+                    TimeUnit.MILLISECONDS);
+            log.info("Индекс сегментов открыт за {} мс: {}", System.currentTimeMillis() - start, segments);
+        } catch (Exception e) {
+            log.error("Не удалось открыть индекс сегментов, поиск будет читать списки страниц из БД: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Собирает из БД сегменты с поколением {@code generation} и фиксирует их. Страницы делятся
+     * на диапазоны id так, чтобы каждый сегмент по оценке не превышал {@code max-segment-bytes};
+     * в сегмент попадают все индексы и заголовки страниц его диапазона.
+     */
+    private void rebuild(long generation) throws IOException {
+        long rebuildEpoch;
+        synchronized (this) {
+            rebuildEpoch = epoch;
+        }
+        List<Segment> rebuilt = new ArrayList<>();
+        for (int[] range : pageRanges()) {
+            Path file = nextSegmentFile();
+            try (SegmentWriter writer = new SegmentWriter(file)) {
+                SegmentLoader loader = new SegmentLoader(writer);
+                bulkIndexRepository.forEachPosting(range[0], range[1], loader::accept);
+                loader.flush();
+                bulkIndexRepository.forEachPageTitle(range[0], range[1], writer::addPage);
+                writer.finish();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            rebuilt.add(Segment.open(file, generation));
+        }
+        synchronized (this) {
+            if (rebuildEpoch == epoch) {
+                segments = List.copyOf(rebuilt);
+            }
+        }
+        commit();
+    }
+
+    /**
+     * Диапазоны id страниц {@code (from, to]} для сегментов пересборки; последний открыт сверху.
+     */
+    private List<int[]> pageRanges() {
+        long budget = Math.max(1, settings.getMaxSegmentBytes());
+        List<int[]> ranges = new ArrayList<>();
+        int[] bounds = {0, 0};
+        long[] size = {0};
+        bulkIndexRepository.forEachPagePostingCount((pageId, postings) -> {
+            long pageBytes = postings * REBUILD_POSTING_BYTES + REBUILD_PAGE_BYTES;
+            if (size[0] > 0 && size[0] + pageBytes > budget) {
+                ranges.add(new int[]{bounds[0], bounds[1]});
+                bounds[0] = bounds[1];
+                size[0] = 0;
+            }
+            size[0] += pageBytes;
+            bounds[1] = pageId;
+        });
+        ranges.add(new int[]{bounds[0], Integer.MAX_VALUE});
+        return ranges;
+    }
+
+    /**
+     * Записывает буфер в новый сегмент. Если запись не удалась, буфер остаётся доступен поиску
+     * и будет записан при следующей попытке.
+     *
+     * @return {@code true}, если всё, что было в памяти, теперь лежит в зафиксированных сегментах
+     */
+    private boolean flush() {
+        flushQueued.set(false);
+        Memtable frozen;
+        long flushEpoch;
+        synchronized (this) {
+            if (flushing == null) {
+                if (memtable.isEmpty()) {
+                    return true;
+                }
+                flushing = memtable;
+                memtable = new Memtable(flushing.generation + 1);
+            }
+            frozen = flushing;
+            flushEpoch = epoch;
+        }
+        try {
+            Path file = nextSegmentFile();
+            Segment segment = null;
+            try (SegmentWriter writer = new SegmentWriter(file)) {
+                if (frozen.writeTo(writer, dead(frozen.generation))) {
+                    writer.finish();
+                    segment = Segment.open(file, frozen.generation);
+                }
+            }
+            synchronized (this) {
+                if (flushEpoch == epoch) {
+                    if (segment != null) {
+                        List<Segment> updated = new ArrayList<>(segments);
+                        updated.add(segment);
+                        segments = List.copyOf(updated);
+                    }
+                    flushing = null;
+                }
+            }
+            commit();
+            merge();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Не удалось записать сегмент индекса: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Сливает окно из {@code mergeFactor} соседних сегментов с наименьшим суммарным размером,
+     * пока сегментов больше {@code mergeFactor}. Итоговый сегмент получает поколение самого нового.
+     */
+    private void merge() throws IOException {
+        int factor = Math.max(2, settings.getMergeFactor());
+        while (true) {
+            List<Segment> current = segments;
+            int best = -1;
+            long bestSize = Long.MAX_VALUE;
+            for (int i = 0; current.size() > factor && i + factor <= current.size(); i++) {
+                long size = 0;
+                for (int j = i; j < i + factor; j++) {
+                    size += current.get(j).sizeBytes;
+                }
+                if (size < bestSize && size <= settings.getMaxSegmentBytes()) {
+                    best = i;
+                    bestSize = size;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            List<Segment> window = current.subList(best, best + factor);
+            Segment merged = mergeSegments(window);
+            synchronized (this) {
+                if (!segments.containsAll(window)) {
+                    return;
+                }
+                List<Segment> updated = new ArrayList<>(segments);
+                int position = updated.indexOf(window.get(0));
+                updated.removeAll(window);
+                if (merged != null) {
+                    updated.add(position, merged);
+                }
+                segments = List.copyOf(updated);
+            }
+            commit();
+            log.info("Слито {} сегментов за {} мс в {}", window.size(), System.currentTimeMillis() - start, merged);
+        }
+    }
+
+    private Segment mergeSegments(List<Segment> window) throws IOException {
+        long generation = window.get(window.size() - 1).generation;
+        Map<Integer, SortedSet<String>> keys = new TreeMap<>();
+        for (Segment segment : window) {
+            segment.dictionary.forEach((siteId, lemmas) ->
+                    keys.computeIfAbsent(siteId, id -> new TreeSet<>()).addAll(lemmas.keySet()));
+        }
+        Path file = nextSegmentFile();
+        boolean written = false;
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            for (var site : keys.entrySet()) {
+                for (String lemma : site.getValue()) {
+                    TreeMap<Integer, Float> merged = new TreeMap<>();
+                    for (Segment segment : window) {
+                        PostingList postings = isCleared(site.getKey(), segment.generation)
+                                ? null
+                                : segment.postings(site.getKey(), lemma);
+                        if (postings == null) {
+                            continue;
+                        }
+                        IntPredicate dead = dead(segment.generation);
+                        PostingList.Cursor cursor = postings.cursor();
+                        for (int page = cursor.next(); page != PostingList.NO_MORE_PAGES; page = cursor.next()) {
+                            if (!dead.test(page)) {
+                                merged.put(page, cursor.rank());
+                            }
+                        }
+                    }
+                    if (!merged.isEmpty()) {
+                        writer.addPostings(site.getKey(), lemma, toPostingList(merged));
+                        written = true;
+                    }
+                }
+            }
+            for (Segment segment : window) {
+                IntPredicate dead = dead(segment.generation);
+                for (int i = 0; i < segment.pageCount; i++) {
+                    int pageId = segment.pageId(i);
+                    if (!dead.test(pageId)) {
+                        writer.addPage(pageId, segment.titleAt(i));
+                    }
+                }
+            }
+            if (written) {
+                writer.finish();
+            }
+        }
+        return written ? Segment.open(file, generation) : null;
+    }
+
+    /**
+     * Пишет новую точку фиксации и удаляет старые вместе с файлами сегментов, на которые она не ссылается.
+     * Отметки удаления, которые уже не отсекают ни одного сегмента, при этом забываются.
+     */
+    private void commit() throws IOException {
+        List<Segment> committed;
+        Map<Integer, Long> deletes;
+        Map<Integer, Long> cleared;
+        long nextGeneration;
+        long counter;
+        synchronized (this) {
+            List<Segment> current = segments;
+            Memtable frozen = flushing;
+            long oldest = Math.min(current.isEmpty() ? memtable.generation : current.get(0).generation,
+                    frozen == null ? memtable.generation : frozen.generation);
+            deletedBefore.entrySet().removeIf(entry -> entry.getValue() == DELETED
+                    ? (frozen == null || !frozen.contains(entry.getKey()))
+                    && current.stream().noneMatch(segment -> segment.containsPage(entry.getKey()))
+                    : entry.getValue() <= oldest);
+            clearedSites.values().removeIf(generation -> generation <= oldest);
+            committed = current;
+            deletes = new HashMap<>(deletedBefore);
+            cleared = new HashMap<>(clearedSites);
+            nextGeneration = memtable.generation;
+            counter = fileCounter;
+        }
+
+        long number = commitNumber + 1;
+        Path file = directory.resolve(COMMIT_PREFIX + number);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(COMMIT_MAGIC);
+            out.writeLong(counter);
+            out.writeLong(nextGeneration);
+            out.writeInt(committed.size());
+            for (Segment segment : committed) {
+                out.writeUTF(segment.name);
+                out.writeLong(segment.generation);
+            }
+            writeGenerations(out, deletes);
+            writeGenerations(out, cleared);
+            out.writeInt(COMMIT_MAGIC);
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        commitNumber = number;
+        removeUnreferenced(committed);
+    }
+
+    /**
+     * Читает самую новую целую точку фиксации.
+     *
+     * @return поколение для буфера в памяти или 0, если целой точки фиксации нет
+     */
+    private long readCommit() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, COMMIT_PREFIX + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(COMMIT_PREFIX.length());
+                if (suffix.chars().allMatch(Character::isDigit) && !suffix.isEmpty()) {
+                    numbers.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        numbers.sort(Comparator.reverseOrder());
+        for (long number : numbers) {
+            Path file = directory.resolve(COMMIT_PREFIX + number);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != COMMIT_MAGIC) {
+                    continue;
+                }
+                long counter = in.readLong();
+                long nextGeneration = in.readLong();
+                List<Segment> opened = new ArrayList<>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    opened.add(Segment.open(directory.resolve(name), in.readLong()));
+                }
+                Map<Integer, Long> deletes = readGenerations(in);
+                Map<Integer, Long> cleared = readGenerations(in);
+                if (in.readInt() != COMMIT_MAGIC) {
+                    continue;
+                }
+                synchronized (this) {
+                    commitNumber = number;
+                    fileCounter = counter;
+                    segments = List.copyOf(opened);
+                    deletes.forEach(deletedBefore::putIfAbsent);
+                    cleared.forEach(clearedSites::putIfAbsent);
+                }
+                long newest = opened.stream().mapToLong(segment -> segment.generation).max().orElse(0);
+                return Math.max(nextGeneration, newest + 1);
+            } catch (IOException e) {
+                log.warn("Точка фиксации {} повреждена: {}", file.getFileName(), e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Вызывается только из потока обслуживания, поэтому файлы, которые сейчас пишутся, сюда не попадают.
+     */
+    private void removeUnreferenced(List<Segment> committed) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        committed.forEach(segment -> referenced.add(segment.name));
+        String commit = COMMIT_PREFIX + commitNumber;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean stale = name.startsWith(COMMIT_PREFIX) ? !name.equals(commit)
+                        : name.startsWith(SEGMENT_PREFIX) && !referenced.contains(name);
+                if (stale) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private synchronized Path nextSegmentFile() {
+        fileCounter++;
+        return directory.resolve(SEGMENT_PREFIX + fileCounter + SEGMENT_SUFFIX);
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Каталог индекса не удалось сбросить на диск: {}", e.getMessage());
+        }
+    }
+
+    private static void writeGenerations(DataOutputStream out, Map<Integer, Long> generations) throws IOException {
+        out.writeInt(generations.size());
+        for (var entry : generations.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private static Map<Integer, Long> readGenerations(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<Integer, Long> generations = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            generations.put(in.readInt(), in.readLong());
+        }
+        return generations;
+    }
+
+    private static PostingList toPostingList(SortedMap<Integer, Float> postings) {
+        PostingList.Builder builder = PostingList.builder(postings.size());
+        postings.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Пишет строки загрузки, упорядоченные по лемме и странице, списками в сегмент.
+     */
+    private static final class SegmentLoader {
+        private final SegmentWriter writer;
+        private int siteId;
+        private String lemma;
+        private PostingList.Builder builder;
+
+        private SegmentLoader(SegmentWriter writer) {
+            this.writer = writer;
+        }
+
+        private void accept(int siteId, String lemma, int pageId, float rank) {
+            if (builder == null || siteId != this.siteId || !lemma.equals(this.lemma)) {
+                flush();
+                this.siteId = siteId;
+                this.lemma = lemma;
+                this.builder = PostingList.builder(16);
+            }
+            builder.add(pageId, rank);
+        }
+
+        private void flush() {
+            if (builder != null) {
+                try {
+                    writer.addPostings(siteId, lemma, builder.build());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                builder = null;
+            }
+        }
+    }
+
+    /**
+     * Изменения, ещё не записанные в сегмент: списки страниц по сайту и лемме и леммы каждой страницы,
+     * чтобы при замене страницы убрать её старую версию.
+     */
+    private static final class Memtable {
+        private volatile long generation;
+        private final Map<Integer, Map<String, TreeMap<Integer, Float>>> sites = new HashMap<>();
+        private final Map<Integer, IndexUpdate.PageChange> pages = new HashMap<>();
+        private long postingCount;
+
+        private Memtable(long generation) {
+            this.generation = generation;
+        }
+
+        private synchronized void put(IndexUpdate.PageChange change) {
+            remove(change.getPageId());
+            Map<String, TreeMap<Integer, Float>> site = sites.computeIfAbsent(change.getSiteId(), id -> new HashMap<>());
+            change.getLemmas().forEach((lemma, rank) ->
+                    site.computeIfAbsent(lemma, key -> new TreeMap<>()).put(change.getPageId(), rank));
+            pages.put(change.getPageId(), change);
+            postingCount += change.getLemmas().size();
+        }
+
+        private synchronized void remove(int pageId) {
+            IndexUpdate.PageChange page = pages.remove(pageId);
+            if (page == null) {
+                return;
+            }
+            Map<String, TreeMap<Integer, Float>> site = sites.get(page.getSiteId());
+            for (String lemma : page.getLemmas().keySet()) {
+                TreeMap<Integer, Float> postings = site == null ? null : site.get(lemma);
+                if (postings != null && postings.remove(pageId) != null) {
+                    postingCount--;
+                    if (postings.isEmpty()) {
+                        site.remove(lemma);
+                    }
+                }
+            }
+        }
+
+        private synchronized void removeSite(int siteId) {
+            sites.remove(siteId);
+            pages.values().removeIf(page -> page.getSiteId() == siteId);
+            postingCount = pages.values().stream().mapToLong(page -> page.getLemmas().size()).sum();
+        }
+
+        private synchronized Map<Integer, Float> search(int siteId, Collection<String> lemmas, IntPredicate dead) {
+            Map<String, TreeMap<Integer, Float>> site = sites.get(siteId);
+            if (site == null) {
+                return Map.of();
+            }
+            List<PostingList> lists = new ArrayList<>(lemmas.size());
+            for (String lemma : lemmas) {
+                TreeMap<Integer, Float> postings = site.get(lemma);
+                if (postings == null) {
+                    return Map.of();
+                }
+                lists.add(toPostingList(postings));
+            }
+            lists.sort(Comparator.comparingInt(PostingList::size));
+            return PostingList.intersect(lists, dead);
+        }
+
+        private synchronized boolean contains(int pageId) {
+            return pages.containsKey(pageId);
+        }
+
+        private synchronized String title(int pageId) {
+            IndexUpdate.PageChange page = pages.get(pageId);
+            return page == null ? null : Objects.requireNonNullElse(page.getTitle(), "");
+        }
+
+        private synchronized long postingCount() {
+            return postingCount;
+        }
+
+        private synchronized boolean isEmpty() {
+            return pages.isEmpty();
+        }
+
+        /**
+         * @return {@code false}, если писать нечего
+         */
+        private synchronized boolean writeTo(SegmentWriter writer, IntPredicate dead) throws IOException {
+            boolean written = false;
+            for (var site : new TreeMap<>(sites).entrySet()) {
+                for (var lemma : new TreeMap<>(site.getValue()).entrySet()) {
+                    TreeMap<Integer, Float> live = new TreeMap<>(lemma.getValue());
+                    live.keySet().removeIf(dead::test);
+                    if (!live.isEmpty()) {
+                        writer.addPostings(site.getKey(), lemma.getKey(), toPostingList(live));
+                        written = true;
+                    }
+                }
+            }
+            for (IndexUpdate.PageChange page : pages.values()) {
+                if (!dead.test(page.getPageId())) {
+                    writer.addPage(page.getPageId(), page.getTitle());
+                }
+            }
+            return written;
+        }
+    }
+}
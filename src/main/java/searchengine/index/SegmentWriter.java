@@ -0,0 +1,116 @@
+package searchengine.index;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Пишет файл сегмента: списки страниц лемм в порядке добавления, затем словарь лемм со смещениями
+ * списков, таблицу страниц с заголовками и концевик со смещениями разделов. Файл пишется во временный
+ * и переименовывается, поэтому сегмент на диске всегда целый.
+ *
+ * <pre>
+ * int MAGIC
+ * списки: {@link PostingList#writeTo}
+ * словарь: int count, count × (int siteId, UTF lemma, int offset)
+ * страницы: int count, int[count] pageId, int[count] titleOffset, int titlesLength, byte[titlesLength] UTF-8
+ * концевик: int dictionaryOffset, int pagesOffset, int MAGIC
+ * </pre>
+ */
+final class SegmentWriter implements Closeable {
+    static final int MAGIC = 0x53454731;
+
+    private final Path file;
+    private final Path temp;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final List<Object[]> dictionary = new ArrayList<>();
+    private final Map<Integer, String> titles = new TreeMap<>();
+    private boolean finished;
+
+    SegmentWriter(Path file) throws IOException {
+        this.file = file;
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.fileOut = new FileOutputStream(temp.toFile());
+        this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        out.writeInt(MAGIC);
+    }
+
+    void addPostings(int siteId, String lemma, PostingList postings) throws IOException {
+        if (postings.isEmpty()) {
+            return;
+        }
+        dictionary.add(new Object[]{siteId, lemma, out.size()});
+        postings.writeTo(out);
+        checkSize();
+    }
+
+    void addPage(int pageId, String title) {
+        titles.put(pageId, title == null ? "" : title);
+    }
+
+    /**
+     * Дописывает словарь и страницы, сбрасывает файл на диск и переименовывает его в итоговый.
+     *
+     * @return размер файла
+     */
+    long finish() throws IOException {
+        int dictionaryOffset = out.size();
+        out.writeInt(dictionary.size());
+        for (Object[] entry : dictionary) {
+            out.writeInt((Integer) entry[0]);
+            out.writeUTF((String) entry[1]);
+            out.writeInt((Integer) entry[2]);
+        }
+        int pagesOffset = out.size();
+        out.writeInt(titles.size());
+        for (Integer pageId : titles.keySet()) {
+            out.writeInt(pageId);
+        }
+        List<byte[]> encoded = new ArrayList<>(titles.size());
+        int titleOffset = 0;
+        for (String title : titles.values()) {
+            byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            out.writeInt(titleOffset);
+            titleOffset += bytes.length;
+        }
+        out.writeInt(titleOffset);
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+        out.writeInt(dictionaryOffset);
+        out.writeInt(pagesOffset);
+        out.writeInt(MAGIC);
+        checkSize();
+        out.flush();
+        fileOut.getChannel().force(true);
+        out.close();
+        finished = true;
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Смещения внутри сегмента — int, а отображение файла в память ограничено 2 ГБ.
+     */
+    private void checkSize() throws IOException {
+        if (out.size() < 0 || out.size() > Integer.MAX_VALUE - (1 << 20)) {
+            throw new IOException("Сегмент " + file.getFileName() + " превысил 2 ГБ");
+        }
+    }
+}
@@ -29,4 +29,10 @@ public class IndexEntity {
     @Column(name = "field_rank", nullable = false)
     private Float rank;
 
+    /**
+     * Позиции леммы на странице в формате {@link searchengine.parser.Positions}; {@code null}, если не записаны.
+     */
+    @Column(name = "positions", columnDefinition = "BLOB")
+    private byte[] positions;
+
 }
@@ -1,7 +1,6 @@
 package searchengine.model;
 
 import jakarta.persistence.*;
-import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -11,9 +10,12 @@ import java.util.List;
 @NoArgsConstructor
 @Getter
 @Setter
-@EqualsAndHashCode
 @Entity
-@Table(name = "lemmas")
+@Table(name = "lemmas",
+        uniqueConstraints = {
+            @UniqueConstraint(name = "uk_lemma_site", columnNames = {"site_id", "lemma"})
+        }
+)
 public class LemmaEntity {
 
     @Id
@@ -1,20 +1,19 @@
 package searchengine.model;
 
 import jakarta.persistence.*;
-import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.util.List;
-@EqualsAndHashCode
 @Setter
 @Getter
 @NoArgsConstructor
 @Entity
 @Table(name = "pages",
         indexes = {
-            @Index(name = "idx_path", columnList = "path")
+            @Index(name = "idx_path", columnList = "path"),
+            @Index(name = "idx_tombstone", columnList = "tombstone")
         }
 )
 public class PageEntity {
@@ -37,6 +36,31 @@ public class PageEntity {
     @Column(name = "content", columnDefinition = "MEDIUMTEXT", nullable = false)
     private String content;
 
+    @Column(name = "title", columnDefinition = "VARCHAR(512)")
+    private String title;
+
+    /**
+     * Текст страницы без разметки, извлечённый при индексации; хранится сжатым.
+     */
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(name = "plain_text_z", columnDefinition = "MEDIUMBLOB")
+    private String plainText;
+
+    @Column(name = "etag", columnDefinition = "VARCHAR(255)")
+    private String etag;
+
+    @Column(name = "last_modified", columnDefinition = "VARCHAR(64)")
+    private String lastModified;
+
+    @Column(name = "content_hash", columnDefinition = "CHAR(40)")
+    private String contentHash;
+
+    /**
+     * Устаревшая версия страницы: скрыта из поиска и ждёт удаления фоновым уплотнением.
+     */
+    @Column(name = "tombstone", columnDefinition = "BOOLEAN NOT NULL DEFAULT FALSE")
+    private boolean tombstone;
+
     @OneToMany(mappedBy = "page", fetch = FetchType.LAZY)
     private List<IndexEntity> index;
 }
@@ -0,0 +1,106 @@
+package searchengine.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Автомат Ахо — Корасик: находит все вхождения набора образцов за один проход по тексту.
+ * Текст сравнивается без учёта регистра, без копирования в нижний регистр.
+ */
+public final class AhoCorasick {
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<Integer> failure = new ArrayList<>();
+    private final List<int[]> outputs = new ArrayList<>();
+    private final int[] patternLengths;
+
+    /**
+     * @param patterns образцы в нижнем регистре; номер образца в списке передаётся в {@link Listener}
+     */
+    public AhoCorasick(List<String> patterns) {
+        patternLengths = new int[patterns.size()];
+        addState();
+        for (int id = 0; id < patterns.size(); id++) {
+            String pattern = patterns.get(id);
+            patternLengths[id] = pattern.length();
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer next = transitions.get(state).get(pattern.charAt(i));
+                if (next == null) {
+                    next = addState();
+                    transitions.get(state).put(pattern.charAt(i), next);
+                }
+                state = next;
+            }
+            outputs.set(state, append(outputs.get(state), id));
+        }
+        buildFailureLinks();
+    }
+
+    /**
+     * Перебирает вхождения в {@code text[0, limit)} по возрастанию позиции конца.
+     */
+    public void find(CharSequence text, int limit, Listener listener) {
+        int state = 0;
+        int end = Math.min(limit, text.length());
+        for (int i = 0; i < end; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            Integer next;
+            while ((next = transitions.get(state).get(c)) == null && state != 0) {
+                state = failure.get(state);
+            }
+            state = next == null ? 0 : next;
+            for (int id : outputs.get(state)) {
+                if (!listener.onMatch(id, i + 1 - patternLengths[id], i + 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int addState() {
+        transitions.add(new HashMap<>());
+        failure.add(0);
+        outputs.add(new int[0]);
+        return transitions.size() - 1;
+    }
+
+    private void buildFailureLinks() {
+        Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (var entry : transitions.get(state).entrySet()) {
+                int child = entry.getValue();
+                int fallback = failure.get(state);
+                Integer target;
+                while ((target = transitions.get(fallback).get(entry.getKey())) == null && fallback != 0) {
+                    fallback = failure.get(fallback);
+                }
+                int link = target == null || target == child ? 0 : target;
+                failure.set(child, link);
+                for (int id : outputs.get(link)) {
+                    outputs.set(child, append(outputs.get(child), id));
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @return {@code false}, чтобы остановить поиск
+         */
+        boolean onMatch(int patternId, int start, int end);
+    }
+}
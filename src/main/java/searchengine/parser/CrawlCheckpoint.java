@@ -0,0 +1,14 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class CrawlCheckpoint {
+    private final String siteUrl;
+    private final long[] seen;
+    private final List<QueuedUrl> queued;
+}
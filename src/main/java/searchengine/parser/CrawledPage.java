@@ -0,0 +1,30 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.util.Map;
+
+@Getter
+@RequiredArgsConstructor
+public class CrawledPage {
+    private final String url;
+    private final String html;
+    private final int statusCode;
+    private final PageDocument document;
+    private final String etag;
+    private final String lastModified;
+    private final String contentHash;
+    /**
+     * Прежняя версия страницы в БД, если страница уже индексировалась.
+     */
+    private final StoredPage stored;
+    @Setter
+    private Map<String, Float> lemmas;
+    /**
+     * Позиции лемм, если они собираются.
+     */
+    @Setter
+    private Map<String, Positions> positions;
+}
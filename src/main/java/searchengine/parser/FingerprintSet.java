@@ -0,0 +1,147 @@
+package searchengine.parser;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Потокобезопасное множество 64-битных отпечатков на открытой адресации.
+ * Значения лежат прямо в массивах {@code long[]}, разбитых на полосы со своей блокировкой,
+ * поэтому один URL стоит 11–21 байт вместо сотен байт у строкового ключа в {@code ConcurrentHashMap}.
+ * Ноль зарезервирован под пустую ячейку.
+ */
+public class FingerprintSet {
+    private static final int STRIPES = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public FingerprintSet(int expectedSize) {
+        int perStripe = Math.max(16, (int) (expectedSize / STRIPES / LOAD_FACTOR) + 1);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Integer.highestOneBit(perStripe - 1) << 1);
+        }
+    }
+
+    public boolean add(long fingerprint) {
+        Stripe stripe = stripeOf(fingerprint);
+        synchronized (stripe) {
+            return stripe.add(fingerprint);
+        }
+    }
+
+    public boolean contains(long fingerprint) {
+        Stripe stripe = stripeOf(fingerprint);
+        synchronized (stripe) {
+            return stripe.contains(fingerprint);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += (long) stripe.table.length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.table = new long[16];
+                stripe.size = 0;
+            }
+        }
+    }
+
+    /**
+     * Перебирает все отпечатки, например для сохранения на диск.
+     */
+    public void forEach(LongConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            long[] snapshot;
+            synchronized (stripe) {
+                snapshot = stripe.table.clone();
+            }
+            for (long value : snapshot) {
+                if (value != 0) {
+                    consumer.accept(value);
+                }
+            }
+        }
+    }
+
+    private Stripe stripeOf(long fingerprint) {
+        return stripes[(int) (fingerprint >>> 58)];
+    }
+
+    private static final class Stripe {
+        private long[] table;
+        private int size;
+
+        private Stripe(int capacity) {
+            this.table = new long[capacity];
+        }
+
+        private boolean add(long value) {
+            if (insert(table, value)) {
+                if (++size > table.length * LOAD_FACTOR) {
+                    resize();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private boolean contains(long value) {
+            int mask = table.length - 1;
+            for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+                long current = table[i];
+                if (current == value) {
+                    return true;
+                }
+                if (current == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] larger = new long[table.length << 1];
+            for (long value : table) {
+                if (value != 0) {
+                    insert(larger, value);
+                }
+            }
+            table = larger;
+        }
+
+        private static boolean insert(long[] table, long value) {
+            int mask = table.length - 1;
+            for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+                long current = table[i];
+                if (current == value) {
+                    return false;
+                }
+                if (current == 0) {
+                    table[i] = value;
+                    return true;
+                }
+            }
+        }
+
+        private static int slot(long value, int mask) {
+            return (int) (value ^ (value >>> 29)) & mask;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package searchengine.parser;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.config.Checkpoint;
+import searchengine.model.SiteEntity;
+import searchengine.repository.PageRepository;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Периодически сохраняет границу обхода каждого индексируемого сайта в файл,
+ * чтобы после остановки или перезапуска продолжить обход, а не начинать его заново.
+ * Файл пишется во временный и атомарно переименовывается, поэтому на диске всегда лежит целая точка.
+ */
+@Slf4j
+@Component
+public class FrontierCheckpoint {
+    private static final int MAGIC = 0x43524b33;
+
+    private final Checkpoint settings;
+    private final PageRepository pageRepository;
+    private final Set<SiteCrawler> tracked = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "frontier-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FrontierCheckpoint(Checkpoint settings, PageRepository pageRepository) {
+        this.settings = settings;
+        this.pageRepository = pageRepository;
+        if (settings.getInterval() > 0) {
+            scheduler.scheduleWithFixedDelay(this::saveAll,
+                    settings.getInterval(), settings.getInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void track(SiteCrawler crawler) {
+        tracked.add(crawler);
+    }
+
+    public void untrack(SiteCrawler crawler) {
+        tracked.remove(crawler);
+    }
+
+    public void saveAll() {
+        for (SiteCrawler crawler : tracked) {
+            try {
+                save(crawler);
+            } catch (Exception e) {
+                log.warn("Ошибка при сохранении контрольной точки сайта {}: {}", crawler.getSite().getUrl(), e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void save(SiteCrawler crawler) {
+        CrawlCheckpoint checkpoint = crawler.checkpoint();
+        Path file = fileOf(checkpoint.getSiteUrl());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(checkpoint.getSiteUrl());
+                out.writeInt(checkpoint.getSeen().length);
+                for (long fingerprint : checkpoint.getSeen()) {
+                    out.writeLong(fingerprint);
+                }
+                out.writeInt(checkpoint.getQueued().size());
+                for (QueuedUrl queued : checkpoint.getQueued()) {
+                    out.writeUTF(queued.getUrl());
+                    out.writeInt(queued.getDepth());
+                    out.writeLong(queued.getPriority());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Контрольная точка сайта {}: {} адресов, {} в очереди",
+                    checkpoint.getSiteUrl(), checkpoint.getSeen().length, checkpoint.getQueued().size());
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить контрольную точку сайта {}: {}", checkpoint.getSiteUrl(), e.getMessage());
+        }
+    }
+
+    public Optional<CrawlCheckpoint> load(String siteUrl) {
+        Path file = fileOf(siteUrl);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(siteUrl)) {
+                log.warn("Файл {} не является контрольной точкой сайта {}", file, siteUrl);
+                return Optional.empty();
+            }
+            long[] seen = new long[in.readInt()];
+            for (int i = 0; i < seen.length; i++) {
+                seen[i] = in.readLong();
+            }
+            int queuedCount = in.readInt();
+            List<QueuedUrl> queued = new ArrayList<>(queuedCount);
+            for (int i = 0; i < queuedCount; i++) {
+                queued.add(new QueuedUrl(in.readUTF(), in.readInt(), in.readLong()));
+            }
+            return Optional.of(new CrawlCheckpoint(siteUrl, seen, queued));
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать контрольную точку сайта {}: {}", siteUrl, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public synchronized void delete(String siteUrl) {
+        try {
+            Files.deleteIfExists(fileOf(siteUrl));
+        } catch (IOException e) {
+            log.warn("Не удалось удалить контрольную точку сайта {}: {}", siteUrl, e.getMessage());
+        }
+    }
+
+    /**
+     * Отпечатки всех страниц сайта, которые уже сохранены в БД.
+     */
+    @Transactional(readOnly = true)
+    public FingerprintSet loadPersisted(SiteEntity site) {
+        FingerprintSet persisted = new FingerprintSet(pageRepository.countBySiteAndTombstoneFalse(site).intValue());
+        try (Stream<String> paths = pageRepository.streamPathsBySite(site)) {
+            paths.map(path -> UrlCanonicalizer.canonicalize(site.getUrl() + path))
+                    .filter(Objects::nonNull)
+                    .forEach(url -> persisted.add(UrlCanonicalizer.fingerprint(url)));
+        }
+        return persisted;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private Path fileOf(String siteUrl) {
+        String name = Long.toHexString(UrlCanonicalizer.fingerprint(siteUrl)) + ".checkpoint";
+        return Path.of(settings.getDirectory()).resolve(name);
+    }
+}
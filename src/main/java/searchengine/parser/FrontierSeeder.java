@@ -0,0 +1,148 @@
+package searchengine.parser;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.Frontier;
+import searchengine.config.Http;
+import searchengine.exceptions.ThreadException;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Начальное заполнение границы обхода: правила robots.txt и адреса из sitemap.xml
+ * (включая вложенные индексы карт и сжатые gzip карты). Адреса из карт попадают в очередь
+ * сразу, с приоритетом по lastmod, поэтому обход с первых секунд идёт с полным параллелизмом.
+ * Запросы robots.txt и карт, как и загрузки страниц, проходят через {@link HostLimiter} своего хоста.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FrontierSeeder {
+    private static final int MAX_ROBOTS_SIZE = 512 * 1024;
+    private static final long BUSY_WAIT_MILLIS = 20;
+
+    private final PageFetcher pageFetcher;
+    private final Http http;
+    private final Frontier settings;
+    private final HostScheduler hostScheduler;
+
+    public RobotsRules loadRobots(String rootUrl) {
+        if (!settings.isRobots()) {
+            return RobotsRules.ALLOW_ALL;
+        }
+        String robotsUrl = originOf(rootUrl) + "/robots.txt";
+        try {
+            HttpResponse<InputStream> response = open(robotsUrl);
+            try (InputStream body = response.body()) {
+                if (response.statusCode() >= 400) {
+                    return RobotsRules.ALLOW_ALL;
+                }
+                String content = new String(body.readNBytes(MAX_ROBOTS_SIZE), StandardCharsets.UTF_8);
+                RobotsRules rules = RobotsRules.parse(content, http.getUserAgent());
+                log.info("robots.txt {}: crawl-delay {}, карт сайта {}", robotsUrl,
+                        rules.getCrawlDelay(), rules.getSitemaps().size());
+                return rules;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Не удалось прочитать {}: {}", robotsUrl, e.getMessage());
+            return RobotsRules.ALLOW_ALL;
+        }
+    }
+
+    /**
+     * Читает карты сайта, указанные в robots.txt, или {@code /sitemap.xml}, если там их нет,
+     * и ставит найденные адреса в очередь обхода.
+     */
+    public void seedSitemaps(SiteCrawler crawler, String rootUrl, RobotsRules robots) {
+        if (!settings.isSitemaps()) {
+            return;
+        }
+        Deque<String> sitemaps = new ArrayDeque<>(robots.getSitemaps().isEmpty()
+                ? List.of(originOf(rootUrl) + "/sitemap.xml")
+                : robots.getSitemaps());
+        Set<String> visited = new HashSet<>();
+        long[] seeded = {0};
+        while (!sitemaps.isEmpty() && visited.size() < settings.getMaxSitemaps()) {
+            String sitemapUrl = sitemaps.poll();
+            if (!visited.add(sitemapUrl)) {
+                continue;
+            }
+            try {
+                HttpResponse<InputStream> response = open(sitemapUrl);
+                try (InputStream body = response.body()) {
+                    if (response.statusCode() >= 400) {
+                        continue;
+                    }
+                    SitemapReader.read(body, (url, lastmod) -> {
+                        if (crawler.seed(url, lastmod)) {
+                            seeded[0]++;
+                        }
+                    }, sitemaps::add);
+                }
+            } catch (ThreadException e) {
+                throw e;
+            } catch (IOException | XMLStreamException | IllegalArgumentException e) {
+                log.warn("Не удалось прочитать карту сайта {}: {}", sitemapUrl, e.getMessage());
+            }
+        }
+        log.info("Из карт сайта {} в очередь добавлено {} адресов", rootUrl, seeded[0]);
+    }
+
+    /**
+     * Ждёт места у ограничителя хоста адреса, открывает ответ и сообщает ограничителю результат.
+     */
+    private HttpResponse<InputStream> open(String url) throws IOException {
+        String canonical = UrlCanonicalizer.canonicalize(url);
+        if (canonical == null) {
+            throw new IllegalArgumentException("Не валидный URL: " + url);
+        }
+        HostLimiter limiter = hostScheduler.forHost(UrlCanonicalizer.hostOf(canonical));
+        try {
+            long delay;
+            while ((delay = limiter.tryAcquire()) != 0) {
+                Thread.sleep(delay == HostLimiter.BUSY ? BUSY_WAIT_MILLIS : delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadException("Индексация прервана пользователем");
+        }
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response;
+        try {
+            response = pageFetcher.openStream(url);
+        } catch (IOException | RuntimeException e) {
+            limiter.onFailure(e instanceof HttpTimeoutException);
+            throw e;
+        }
+        if (response.statusCode() == 429 || response.statusCode() == 503) {
+            limiter.onThrottle(response.headers().firstValue("Retry-After")
+                    .map(PageFetcher::parseRetryAfter)
+                    .orElse(0L));
+        } else {
+            limiter.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return response;
+    }
+
+    private static String originOf(String rootUrl) {
+        String canonical = UrlCanonicalizer.canonicalize(rootUrl);
+        if (canonical == null) {
+            return rootUrl;
+        }
+        int authorityStart = canonical.indexOf("://") + 3;
+        int pathStart = canonical.indexOf('/', authorityStart);
+        return pathStart < 0 ? canonical : canonical.substring(0, pathStart);
+    }
+}
@@ -0,0 +1,140 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import searchengine.config.Http;
+import searchengine.dto.statistics.HostStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничитель запросов к одному хосту. Число одновременных запросов и частота
+ * запросов (ведро токенов) растут аддитивно, пока хост отвечает быстрее целевой задержки,
+ * и уменьшаются мультипликативно при медленных ответах, таймаутах и ответах 429/503.
+ * Заголовок Retry-After приостанавливает выдачу запросов к хосту.
+ */
+public class HostLimiter {
+    public static final long BUSY = -1;
+
+    @Getter
+    private final String host;
+    private final Http settings;
+    private double limit;
+    private double rate;
+    private final double configuredMaxRate;
+    private double maxRate;
+    private double tokens;
+    private long lastRefill;
+    private long lastDecrease;
+    private long pausedUntil;
+    private int inFlight;
+    private double averageLatency;
+    private long throttled;
+
+    public HostLimiter(String host, Http settings) {
+        this.host = host;
+        this.settings = settings;
+        this.limit = Math.max(1, settings.getInitialConnectionsPerHost());
+        this.rate = Math.max(0.1, settings.getRequestsPerSecond());
+        this.configuredMaxRate = Math.max(rate, settings.getMaxRequestsPerSecond());
+        this.maxRate = configuredMaxRate;
+        this.tokens = Math.max(1, settings.getBurst());
+        this.lastRefill = System.nanoTime();
+        this.lastDecrease = lastRefill;
+        this.pausedUntil = lastRefill;
+    }
+
+    /**
+     * Пытается занять место для нового запроса.
+     *
+     * @return 0, если запрос можно отправлять; {@link #BUSY}, если заняты все соединения;
+     * иначе — через сколько миллисекунд стоит попробовать снова
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now < pausedUntil) {
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(pausedUntil - now));
+        }
+        if (inFlight >= (int) limit) {
+            return BUSY;
+        }
+        refill(now);
+        if (tokens < 1) {
+            return Math.max(1, (long) Math.ceil((1 - tokens) / rate * 1000));
+        }
+        tokens -= 1;
+        inFlight++;
+        return 0;
+    }
+
+    public synchronized void release() {
+        inFlight = Math.max(0, inFlight - 1);
+    }
+
+    public synchronized void onSuccess(long latencyMillis) {
+        release();
+        averageLatency = averageLatency == 0 ? latencyMillis : averageLatency * 0.8 + latencyMillis * 0.2;
+        if (latencyMillis > settings.getTargetLatency()) {
+            decrease(System.nanoTime());
+            return;
+        }
+        limit = Math.min(settings.getMaxConnectionsPerHost(), limit + 1 / limit);
+        rate = Math.min(maxRate, rate + 1 / rate);
+    }
+
+    public synchronized void onThrottle(long retryAfterMillis) {
+        release();
+        throttled++;
+        long now = System.nanoTime();
+        decrease(now);
+        if (retryAfterMillis > 0) {
+            pausedUntil = Math.max(pausedUntil, now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+        }
+    }
+
+    public synchronized void onFailure(boolean timeout) {
+        release();
+        if (timeout) {
+            decrease(System.nanoTime());
+        }
+    }
+
+    /**
+     * Ограничивает частоту запросов сверху, например по Crawl-delay из robots.txt. Ограничение заменяет
+     * предыдущее, а не складывается с ним, и не поднимает частоту выше {@code max-requests-per-second}.
+     *
+     * @param requestsPerSecond 0 — снять ограничение
+     */
+    public synchronized void limitRate(double requestsPerSecond) {
+        maxRate = requestsPerSecond > 0
+                ? Math.max(0.01, Math.min(configuredMaxRate, requestsPerSecond))
+                : configuredMaxRate;
+        rate = Math.min(rate, maxRate);
+    }
+
+    public synchronized HostStatistics getStatistics() {
+        HostStatistics statistics = new HostStatistics();
+        statistics.setHost(host);
+        statistics.setConcurrencyLimit((int) limit);
+        statistics.setInFlight(inFlight);
+        statistics.setRequestsPerSecond(Math.round(rate * 100) / 100.0);
+        statistics.setAverageLatency(Math.round(averageLatency));
+        statistics.setThrottled(throttled);
+        return statistics;
+    }
+
+    private void refill(long now) {
+        double elapsedSeconds = (now - lastRefill) / 1_000_000_000.0;
+        tokens = Math.min(Math.max(1, settings.getBurst()), tokens + elapsedSeconds * rate);
+        lastRefill = now;
+    }
+
+    private void decrease(long now) {
+        long window = TimeUnit.MILLISECONDS.toNanos(Math.max(1, settings.getTargetLatency()));
+        if (now - lastDecrease < window) {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(1, limit * settings.getBackoffFactor());
+        rate = Math.max(0.1, rate * settings.getBackoffFactor());
+    }
+}
@@ -0,0 +1,34 @@
+package searchengine.parser;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.Http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранит ограничители запросов по хостам. Подобранные лимиты переживают перезапуск индексации.
+ */
+@Component
+@RequiredArgsConstructor
+public class HostScheduler {
+    private final Http http;
+    private final Map<String, HostLimiter> limiters = new ConcurrentHashMap<>();
+
+    public HostLimiter forHost(String host) {
+        return limiters.computeIfAbsent(host.toLowerCase(Locale.ROOT), h -> new HostLimiter(h, http));
+    }
+
+    public Optional<HostLimiter> findByUrl(String url) {
+        try {
+            return Optional.ofNullable(limiters.get(new URL(url).getHost().toLowerCase(Locale.ROOT)));
+        } catch (MalformedURLException e) {
+            return Optional.empty();
+        }
+    }
+}
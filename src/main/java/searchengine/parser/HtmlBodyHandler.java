@@ -0,0 +1,153 @@
+package searchengine.parser;
+
+import searchengine.exceptions.ReadingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Читает тело ответа как HTML. Тип содержимого проверяется по заголовкам до начала загрузки:
+ * у картинок, PDF и прочих не-HTML ответов поток сразу отменяется. Тело длиннее {@code maxBodySize}
+ * байт (до и после распаковки gzip/deflate) тоже не дочитывается.
+ */
+class HtmlBodyHandler implements HttpResponse.BodyHandler<String> {
+    private final long maxBodySize;
+
+    HtmlBodyHandler(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<String> apply(HttpResponse.ResponseInfo info) {
+        HttpHeaders headers = info.headers();
+        String contentType = headers.firstValue("Content-Type").orElse("");
+        String mediaType = contentType.toLowerCase(Locale.ROOT);
+        if (info.statusCode() < 400 && !mediaType.isEmpty()
+                && !mediaType.contains("html") && !mediaType.contains("xml")) {
+            return new LimitedSubscriber(0, "Неподдерживаемый тип содержимого " + contentType, null, null);
+        }
+        long contentLength = headers.firstValueAsLong("Content-Length").orElse(-1);
+        if (maxBodySize > 0 && contentLength > maxBodySize) {
+            return new LimitedSubscriber(0, "Размер страницы " + contentLength + " больше допустимого", null, null);
+        }
+        return new LimitedSubscriber(maxBodySize, null,
+                headers.firstValue("Content-Encoding").orElse(""), charsetOf(contentType));
+    }
+
+    private static Charset charsetOf(String contentType) {
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                try {
+                    return Charset.forName(trimmed.substring(8).replace("\"", "").trim());
+                } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                    return StandardCharsets.UTF_8;
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private class LimitedSubscriber implements HttpResponse.BodySubscriber<String> {
+        private final long limit;
+        private final String rejection;
+        private final String encoding;
+        private final Charset charset;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private Flow.Subscription subscription;
+
+        private LimitedSubscriber(long limit, String rejection, String encoding, Charset charset) {
+            this.limit = limit;
+            this.rejection = rejection;
+            this.encoding = encoding;
+            this.charset = charset;
+        }
+
+        @Override
+        public CompletionStage<String> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (rejection != null) {
+                subscription.cancel();
+                result.completeExceptionally(new ReadingException(rejection));
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if (result.isDone()) {
+                return;
+            }
+            for (ByteBuffer item : items) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                buffer.write(bytes, 0, bytes.length);
+            }
+            if (limit > 0 && buffer.size() > limit) {
+                subscription.cancel();
+                result.completeExceptionally(new ReadingException("Размер страницы больше " + limit + " байт"));
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(new String(decode(buffer.toByteArray()), charset));
+            } catch (IOException | ReadingException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private byte[] decode(byte[] body) throws IOException {
+            InputStream in;
+            if (encoding.equalsIgnoreCase("gzip")) {
+                in = new GZIPInputStream(new ByteArrayInputStream(body));
+            } else if (encoding.equalsIgnoreCase("deflate")) {
+                in = new InflaterInputStream(new ByteArrayInputStream(body));
+            } else {
+                return body;
+            }
+            try (in) {
+                if (limit <= 0) {
+                    return in.readAllBytes();
+                }
+                byte[] decoded = in.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, limit + 1));
+                if (decoded.length > limit) {
+                    throw new ReadingException("Размер распакованной страницы больше " + limit + " байт");
+                }
+                return decoded;
+            }
+        }
+    }
+}
@@ -1,176 +1,61 @@
 package searchengine.parser;
 
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-import org.springframework.context.ApplicationContext;
-import searchengine.config.Http;
-import searchengine.config.SitesList;
-import searchengine.exceptions.ReadingException;
 import searchengine.exceptions.ThreadException;
-import searchengine.model.SiteEntity;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageRepository;
-import searchengine.repository.SiteRepository;
-import searchengine.services.IndexingPageService;
 import searchengine.services.IndexingServiceImpl;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.Set;
 import java.util.concurrent.RecursiveAction;
 
+/**
+ * Обработка уже скачанной страницы: планирование обхода найденных внутренних ссылок
+ * и передача страницы в конвейер индексации, если её содержимое изменилось. Ссылки ставятся в очередь раньше,
+ * чем страница сохраняется, чтобы контрольная точка обхода их не потеряла. Сетевого ожидания здесь нет,
+ * задача выполняется в {@link java.util.concurrent.ForkJoinPool} только ради работы процессора.
+ */
 @Slf4j
 public class HtmlParser extends RecursiveAction {
-    private final ApplicationContext context;
-    private final String url;
-    private final SiteEntity site;
-    private final PageRepository pageRepository;
-    private final SiteRepository siteRepository;
-    private final IndexRepository indexRepository;
-    private final LemmaRepository lemmaRepository;
-    private final LemmaFinder lemmaFinder;
-    private final SitesList sitesList;
-    private final Set<String> visitedUrl;
-    private final Http http;
-    public HtmlParser(ApplicationContext context, String url,
-                      SiteEntity site, PageRepository pageRepository,
-                      SiteRepository siteRepository, IndexRepository indexRepository,
-                      LemmaRepository lemmaRepository, LemmaFinder lemmaFinder,
-                      SitesList sitesList,
-                      Set<String> visitedUrl, Http http) {
-        this.context = context;
-        this.url = url;
-        this.site = site;
-        this.pageRepository = pageRepository;
-        this.siteRepository = siteRepository;
-        this.indexRepository = indexRepository;
-        this.lemmaRepository = lemmaRepository;
-        this.lemmaFinder = lemmaFinder;
-        this.sitesList = sitesList;
-        this.visitedUrl = visitedUrl;
-        this.http = http;
+    private final SiteCrawler crawler;
+    private final int depth;
+    private final PageResponse response;
+
+    public HtmlParser(SiteCrawler crawler, int depth, PageResponse response) {
+        this.crawler = crawler;
+        this.depth = depth;
+        this.response = response;
     }
-    public Response getResponse(String url) {
-        checkInterrupted();
-        try {
-            if (IndexingServiceImpl.stopRequested.get() || Thread.currentThread().isInterrupted()) {
-                throw new ThreadException("Индексация прервана пользователем");
-            }
-            return Jsoup.connect(url)
-                    .userAgent(http.getUserAgent()) .referrer(http.getReferrer())
-                    .timeout(http.getTimeout())
-                    .execute();
-        } catch (IOException ex) {
-            throw new ReadingException("Ошибка загрузки страницы: " + url);
-        }
 
-    }
     @Override
     protected void compute() {
-        IndexingPageService indexingPageService = context.getBean(IndexingPageService.class);
+        String url = response.getUrl();
+        boolean submitted = false;
         try {
             checkInterrupted();
-            while (!IndexingServiceImpl.stopRequested.get()) {
-
-                String pageKey = getNormalizedPath(url);
-                if (!visitedUrl.add(pageKey)) {
-                    break;
-                }
-                checkInterrupted();
-
-                Response response = getResponse(url);
-                String html = response.body();
-                int statusCode = response.statusCode();
-
-                checkInterrupted();
-                synchronized (IndexingPageService.LEMMA_LOCK) {
-                    indexingPageService.indexPage(url, html, statusCode, site);
-                }
-                Elements elements;
+            String html = response.getBody();
+            PageDocument document = PageDocument.parse(html, response.getBaseUrl());
 
-                try {
-                    checkInterrupted();
-                    elements = response.parse().select("a[href]");
-                } catch (IOException e) {
-                    log.warn("Не могу прочитать страницу {}: {}", url, e.getMessage());
-                    return;
-                }
+            crawler.scheduleAll(document.getLinks(), depth + 1);
 
-                ArrayList<HtmlParser> taskList = new ArrayList<>();
-                String currentDomain = getHost(url);
-
-                for (Element link : elements) {
-                    checkInterrupted();
-
-                    String absUrl = link.absUrl("href").trim();
-
-                    if (absUrl.isEmpty() || !isInternalLink(absUrl, currentDomain)) continue;
-                    String childKey = getNormalizedPath(absUrl);
-                    if (visitedUrl.contains(childKey)) {
-                        continue;
-                    }
-
-                    HtmlParser child = new HtmlParser(context, absUrl, site,
-                            pageRepository, siteRepository, indexRepository,
-                            lemmaRepository, lemmaFinder, sitesList,
-                            visitedUrl, http);
-                    child.fork();
-                    taskList.add(child);
-                }
-
-                for (HtmlParser task : taskList) {
-                    checkInterrupted();
-                    task.join();
-                }
+            checkInterrupted();
+            String contentHash = document.contentHash();
+            StoredPage stored = crawler.storedPage(url);
+            if (crawler.isPersisted(url)) {
+                crawler.markSaved(url);
+            } else if (stored != null && contentHash.equals(stored.getContentHash())) {
+                crawler.markUnchanged(url);
+            } else {
+                crawler.getPipeline().submit(new CrawledPage(url, html, response.getStatusCode(), document,
+                        response.getEtag(), response.getLastModified(), contentHash, stored));
+                submitted = true;
             }
         } catch (ThreadException e) {
-            throw e;
-        } catch (ReadingException e) {
-            log.warn("Ошибка загрузки страницы {}: {}", url, e.getMessage());
+            log.debug("Обработка страницы {} прервана", url);
         } catch (Exception e) {
             log.error("Неожиданная ошибка при обработке страницы {}: {}", url, e.getMessage(), e);
-        }
-    }
-
-    private String getNormalizedPath(String url) {
-        try {
-            URL u = new URL(url);
-            String path = u.getPath();
-
-            if (path == null || path.isEmpty()) {
-                path = "/";
+        } finally {
+            if (!submitted) {
+                crawler.release();
             }
-            if (path.length() > 1 && path.endsWith("/")) {
-                path = path.substring(0, path.length() - 1);
-            }
-            return path;
-        } catch (MalformedURLException e) {
-            throw new ReadingException("Не валидный URL: " + url);
-        }
-    }
-
-    private String getHost(String url) {
-        try {
-            return new URL(url).getHost();
-        } catch (MalformedURLException e) {
-            throw new ReadingException("Не валидный URL: " + url);
-        }
-    }
-
-    private boolean isInternalLink(String absUrl, String currentDomain) {
-        try {
-            URL linkUrl = new URL(absUrl);
-            String host = linkUrl.getHost();
-            return host.equalsIgnoreCase(currentDomain);
-
-        } catch (MalformedURLException e) {
-            return false;
+            crawler.complete();
         }
     }
 
@@ -0,0 +1,62 @@
+package searchengine.parser;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.Pipeline;
+import searchengine.model.SiteEntity;
+import searchengine.services.IndexingPageService;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexingPipeline {
+    private final Pipeline settings;
+    private final LemmaFinder lemmaFinder;
+    private final IndexingPageService indexingPageService;
+    private final Map<Integer, SitePipeline> pipelines = new ConcurrentHashMap<>();
+    private volatile ExecutorService executorService;
+
+    public synchronized void start() {
+        shutdownNow();
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    public SitePipeline open(SiteEntity site) {
+        SitePipeline pipeline = new SitePipeline(site, settings, lemmaFinder, indexingPageService);
+        pipeline.start(executorService);
+        pipelines.put(site.getId(), pipeline);
+        return pipeline;
+    }
+
+    public void close(SitePipeline pipeline) {
+        pipelines.remove(pipeline.getSite().getId(), pipeline);
+    }
+
+    public Optional<SitePipeline> findBySiteId(Integer siteId) {
+        return Optional.ofNullable(pipelines.get(siteId));
+    }
+
+    public synchronized void shutdownNow() {
+        pipelines.clear();
+        if (executorService == null || executorService.isShutdown()) {
+            return;
+        }
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(3, TimeUnit.SECONDS)) {
+                log.warn("Конвейер индексации не завершился вовремя");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Ожидание завершения конвейера прервано");
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package searchengine.parser;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.Ingestion;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Журнал заданий на индексацию страниц, который только дописывается. Каждое задание записывается
+ * целиком и сбрасывается на диск до ответа клиенту, а по мере обработки в журнал дописываются отметки
+ * о готовых адресах. После перезапуска журнал проигрывается, и необработанные адреса снова ставятся
+ * в очередь. Недописанная из-за сбоя последняя запись отрезается.
+ */
+@Slf4j
+@Component
+public class IngestionJournal {
+    private static final int MAGIC = 0x494e474a;
+    private static final byte SUBMIT = 1;
+    private static final byte DONE = 2;
+
+    private final Path file;
+    private DataOutputStream out;
+    private FileOutputStream fileOut;
+
+    public IngestionJournal(Ingestion settings) {
+        this.file = Path.of(settings.getDirectory()).resolve("ingestion.journal");
+    }
+
+    public interface Listener {
+        void onSubmit(String jobId, long createdAt, List<String> urls);
+
+        /**
+         * @param error {@code null}, если адрес проиндексирован
+         */
+        void onDone(String jobId, int index, String error);
+    }
+
+    /**
+     * Читает журнал с начала и открывает его на дозапись.
+     */
+    public synchronized void replay(Listener listener) throws IOException {
+        Files.createDirectories(file.getParent());
+        long valid = 0;
+        if (Files.exists(file)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+                 DataInputStream in = new DataInputStream(counting)) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Файл " + file + " не является журналом заданий");
+                }
+                valid = counting.count;
+                while (true) {
+                    byte type = in.readByte();
+                    String jobId = in.readUTF();
+                    if (type == SUBMIT) {
+                        long createdAt = in.readLong();
+                        int count = in.readInt();
+                        List<String> urls = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            urls.add(in.readUTF());
+                        }
+                        listener.onSubmit(jobId, createdAt, urls);
+                    } else if (type == DONE) {
+                        int index = in.readInt();
+                        String error = in.readBoolean() ? in.readUTF() : null;
+                        listener.onDone(jobId, index, error);
+                    } else {
+                        throw new EOFException();
+                    }
+                    valid = counting.count;
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                if (valid < Files.size(file)) {
+                    log.warn("Журнал заданий {} обрезан до {} байт после незавершённой записи", file, valid);
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(valid);
+                    }
+                }
+            }
+        }
+        open(valid == 0);
+    }
+
+    public synchronized void submit(String jobId, long createdAt, List<String> urls) throws IOException {
+        writeSubmit(out, jobId, createdAt, urls);
+        sync();
+    }
+
+    /**
+     * Отмечает пачку обработанных адресов одной записью на диск.
+     *
+     * @param done тройки {@code {jobId, index, error}}
+     */
+    public synchronized void done(List<Object[]> done) throws IOException {
+        for (Object[] record : done) {
+            writeDone(out, (String) record[0], (Integer) record[1], (String) record[2]);
+        }
+        sync();
+    }
+
+    /**
+     * Переписывает журнал заново, например оставляя только незавершённые задания.
+     * Новый журнал пишется во временный файл и атомарно подменяет старый.
+     */
+    public synchronized void rewrite(Consumer<Listener> source) throws IOException {
+        close();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream tempOut = new FileOutputStream(temp.toFile());
+             DataOutputStream rewritten = new DataOutputStream(new BufferedOutputStream(tempOut))) {
+            rewritten.writeInt(MAGIC);
+            IOException[] failure = new IOException[1];
+            source.accept(new Listener() {
+                @Override
+                public void onSubmit(String jobId, long createdAt, List<String> urls) {
+                    try {
+                        writeSubmit(rewritten, jobId, createdAt, urls);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+
+                @Override
+                public void onDone(String jobId, int index, String error) {
+                    try {
+                        writeDone(rewritten, jobId, index, error);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            rewritten.flush();
+            tempOut.getChannel().force(false);
+        } catch (IOException e) {
+            open(false);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(false);
+    }
+
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть журнал заданий: {}", e.getMessage());
+        }
+        out = null;
+    }
+
+    private static void writeSubmit(DataOutputStream out, String jobId, long createdAt, List<String> urls) throws IOException {
+        out.writeByte(SUBMIT);
+        out.writeUTF(jobId);
+        out.writeLong(createdAt);
+        out.writeInt(urls.size());
+        for (String url : urls) {
+            out.writeUTF(url);
+        }
+    }
+
+    private static void writeDone(DataOutputStream out, String jobId, int index, String error) throws IOException {
+        out.writeByte(DONE);
+        out.writeUTF(jobId);
+        out.writeInt(index);
+        out.writeBoolean(error != null);
+        if (error != null) {
+            out.writeUTF(error);
+        }
+    }
+
+    private void open(boolean create) throws IOException {
+        fileOut = new FileOutputStream(file.toFile(), !create);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        if (create) {
+            out.writeInt(MAGIC);
+            sync();
+        }
+    }
+
+    private void sync() throws IOException {
+        out.flush();
+        fileOut.getChannel().force(false);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package searchengine.parser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Словарь лемм одного сайта на время индексации: id уже известных лемм и ещё не сохранённые
+ * изменения частот. Частоты копятся в {@link LongAdder} и периодически сбрасываются в таблицу
+ * {@code lemmas} одним пакетным upsert, поэтому запись страницы не читает и не блокирует строки лемм.
+ */
+public class LemmaDictionary {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> pending = new ConcurrentHashMap<>();
+    private final long flushInterval;
+    private volatile long lastFlush = System.currentTimeMillis();
+
+    /**
+     * @param flushInterval как часто сбрасывать частоты в БД, мс; 0 — при каждой проверке
+     */
+    public LemmaDictionary(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public Integer idOf(String lemma) {
+        return ids.get(lemma);
+    }
+
+    public void putIds(Map<String, Integer> resolved) {
+        ids.putAll(resolved);
+    }
+
+    public void addAll(Map<String, Integer> deltas) {
+        deltas.forEach((lemma, delta) -> pending.computeIfAbsent(lemma, key -> new LongAdder()).add(delta));
+    }
+
+    public boolean isFlushDue() {
+        return System.currentTimeMillis() - lastFlush >= flushInterval;
+    }
+
+    /**
+     * Забирает накопленные изменения частот, обнуляя счётчики.
+     */
+    public Map<String, Long> drain() {
+        lastFlush = System.currentTimeMillis();
+        Map<String, Long> deltas = new HashMap<>();
+        pending.forEach((lemma, counter) -> {
+            long delta = counter.sumThenReset();
+            if (delta != 0) {
+                deltas.put(lemma, delta);
+            }
+        });
+        return deltas;
+    }
+
+    /**
+     * Возвращает изменения, которые не удалось сохранить.
+     */
+    public void restore(Map<String, Long> deltas) {
+        deltas.forEach((lemma, delta) -> pending.computeIfAbsent(lemma, key -> new LongAdder()).add(delta));
+    }
+
+    /**
+     * Забывает id лемм, удалённых из БД.
+     */
+    public void evict(Collection<String> lemmas) {
+        lemmas.forEach(ids::remove);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -5,15 +5,14 @@ import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.morphology.LuceneMorphology;
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
 
 import org.springframework.stereotype.Component;
-import searchengine.exceptions.ReadingException;
+import searchengine.config.SearchIndex;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Setter
 @Getter
@@ -22,44 +21,106 @@ import java.util.List;
 @Component
 public class LemmaFinder {
     private final LuceneMorphology luceneMorphology;
+    private final SearchIndex searchIndex;
     private final String WORD_TYPE_REGEX = "\\W\\w&&[^а-яА-Я\\s]";
     private final String[] particlesNames = {"ПРЕДЛ", "СОЮЗ", "МЕЖД", "ЧАСТ"};
 
     public HashMap<String, Float> collectLemmas(String html) {
-        String[] words = arrayContainsRussianWords(html);
-        HashMap<String, Float> lemmas = new HashMap<>();
+        return collectLemmas(html, 0, null);
+    }
 
-        for (String word : words) {
+    /**
+     * Собирает леммы заголовка и текста страницы, а если включено {@code indexing.search-index.positions},
+     * то и их позиции.
+     */
+    public void collectLemmas(CrawledPage page) {
+        PageDocument document = page.getDocument();
+        Map<String, Positions> positions = searchIndex.isPositions() ? new HashMap<>() : null;
+        page.setLemmas(collectLemmas(document.indexableText(), document.textStart(), positions));
+        page.setPositions(positions);
+    }
 
-            if (word.isBlank()) {
-                continue;
+    /**
+     * Собирает леммы текста и, если {@code positions} не {@code null}, их позиции: номер слова и смещение
+     * начала слова относительно {@code textStart}.
+     */
+    public HashMap<String, Float> collectLemmas(String text, int textStart, Map<String, Positions> positions) {
+        HashMap<String, Float> lemmas = new HashMap<>();
+        forEachWord(text, (word, ordinal, start) -> {
+            String normalWord = lemmaOf(word);
+            if (normalWord == null) {
+                return;
             }
-
-            List<String> normalForm = luceneMorphology.getNormalForms(word);
-            if (normalForm.isEmpty()) {
-                continue;
+            lemmas.merge(normalWord, 1f, Float::sum);
+            if (positions != null) {
+                positions.computeIfAbsent(normalWord, key -> new Positions()).add(ordinal, start - textStart);
             }
+        });
+        return lemmas;
+    }
 
-            List<String> wordBaseForm = luceneMorphology.getMorphInfo(word);
-            if (anyWordBaseBelongToParticle(wordBaseForm)) {
-                continue;
-            }
+    /**
+     * Лемма каждого слова текста по его номеру; {@code null} для служебных и нераспознанных слов.
+     * Слова нумеруются так же, как при сборе позиций.
+     */
+    public List<String> lemmasByWord(String text) {
+        List<String> lemmas = new ArrayList<>();
+        forEachWord(text, (word, ordinal, start) -> lemmas.add(lemmaOf(word)));
+        return lemmas;
+    }
 
-            String normalWord = normalForm.get(0);
-            if (lemmas.containsKey(normalWord)) {
-                lemmas.put(normalWord, lemmas.get(normalWord) + 1);
-            } else {
-                lemmas.put(normalWord, 1f);
-            }
+    private String lemmaOf(String word) {
+        List<String> normalForm = luceneMorphology.getNormalForms(word);
+        if (normalForm.isEmpty()) {
+            return null;
         }
-        return lemmas;
+        List<String> wordBaseForm = luceneMorphology.getMorphInfo(word);
+        if (anyWordBaseBelongToParticle(wordBaseForm)) {
+            return null;
+        }
+        return normalForm.get(0);
     }
 
-    private String[] arrayContainsRussianWords(String text) {
-        return text.toLowerCase()
-                .replaceAll("[^а-я\\s]", "")
-                .trim()
-                .split("\\s+");
+    /**
+     * Нормальные формы слова в нижнем регистре; пусто, если слово не русское или это служебная часть речи.
+     */
+    public List<String> normalForms(String word) {
+        String lower = word.toLowerCase();
+        if (lower.isEmpty() || !lower.chars().allMatch(c -> c >= 'а' && c <= 'я')) {
+            return List.of();
+        }
+        if (anyWordBaseBelongToParticle(luceneMorphology.getMorphInfo(lower))) {
+            return List.of();
+        }
+        return luceneMorphology.getNormalForms(lower);
+    }
+
+    /**
+     * Делит текст по пробельным символам и оставляет в каждом слове только строчные русские буквы;
+     * слова, от которых ничего не осталось, не нумеруются.
+     */
+    private static void forEachWord(String text, WordConsumer consumer) {
+        StringBuilder word = new StringBuilder();
+        int ordinal = 0;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                if (!word.isEmpty()) {
+                    consumer.accept(word.toString(), ordinal++, start);
+                    word.setLength(0);
+                }
+                start = -1;
+                continue;
+            }
+            if (start < 0) {
+                start = i;
+            }
+            char lower = Character.toLowerCase(c);
+            if (lower >= 'а' && lower <= 'я') {
+                word.append(lower);
+            }
+        }
     }
 
     private boolean anyWordBaseBelongToParticle(List<String> wordBaseForm) {
@@ -75,21 +136,8 @@ public class LemmaFinder {
         return false;
     }
 
-    public Response getResponse(String url) {
-        try {
-            if (url.startsWith("http")) {
-                return  Jsoup.connect(url)
-                        .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36")
-                        .referrer("https://www.google.com")
-                        .execute();
-            } else {
-                return  Jsoup.connect("https://" + url)
-                        .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36")
-                        .referrer("https://www.google.com")
-                        .execute();
-            }
-        } catch (IOException e) {
-            throw new ReadingException("Не удалось прочитать страницу");
-        }
+    @FunctionalInterface
+    private interface WordConsumer {
+        void accept(String word, int ordinal, int start);
     }
 }
@@ -0,0 +1,117 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jsoup.Jsoup;
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Результат единственного разбора HTML: заголовок, видимый текст и исходящие ссылки.
+ * Документ обходится один раз; содержимое script, style и подобных тегов в текст не попадает,
+ * поэтому дальше ни лемматизатор, ни поиск с HTML не работают.
+ */
+@Getter
+@RequiredArgsConstructor
+public class PageDocument {
+    private static final int MAX_TITLE_LENGTH = 512;
+    private static final Set<String> SKIPPED_TAGS = Set.of("script", "style", "noscript", "template", "svg", "head");
+
+    private final String title;
+    private final String text;
+    private final List<String> links;
+
+    public static PageDocument parse(String html, String baseUrl) {
+        Element root = Jsoup.parse(html, baseUrl);
+        StringBuilder title = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        List<String> links = new ArrayList<>();
+
+        NodeTraversor.traverse(new NodeVisitor() {
+            private int skipped;
+            private int inTitle;
+
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof TextNode textNode) {
+                    if (inTitle > 0) {
+                        title.append(textNode.getWholeText());
+                    } else if (skipped == 0) {
+                        text.append(textNode.getWholeText()).append(' ');
+                    }
+                } else if (node instanceof Element element) {
+                    String tag = element.normalName();
+                    if (tag.equals("title")) {
+                        inTitle++;
+                    } else if (SKIPPED_TAGS.contains(tag)) {
+                        skipped++;
+                    } else if (tag.equals("a") && skipped == 0 && element.hasAttr("href")) {
+                        String link = element.absUrl("href");
+                        if (!link.isEmpty()) {
+                            links.add(link);
+                        }
+                    } else if (element.isBlock() || tag.equals("br")) {
+                        text.append(' ');
+                    }
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element element) {
+                    String tag = element.normalName();
+                    if (tag.equals("title")) {
+                        inTitle--;
+                    } else if (SKIPPED_TAGS.contains(tag)) {
+                        skipped--;
+                    }
+                }
+            }
+        }, root);
+
+        String normalizedTitle = StringUtil.normaliseWhitespace(title.toString()).trim();
+        if (normalizedTitle.length() > MAX_TITLE_LENGTH) {
+            normalizedTitle = normalizedTitle.substring(0, MAX_TITLE_LENGTH);
+        }
+        return new PageDocument(normalizedTitle,
+                StringUtil.normaliseWhitespace(text.toString()).trim(), links);
+    }
+
+    /**
+     * Текст, по которому собираются леммы страницы: заголовок и видимый текст.
+     */
+    public String indexableText() {
+        return title.isEmpty() ? text : title + " " + text;
+    }
+
+    /**
+     * Смещение видимого текста в {@link #indexableText()}.
+     */
+    public int textStart() {
+        return title.isEmpty() ? 0 : title.length() + 1;
+    }
+
+    /**
+     * SHA-1 заголовка и текста: изменения только в разметке или скриптах не считаются изменением страницы.
+     */
+    public String contentHash() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest((title + "\n" + text).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
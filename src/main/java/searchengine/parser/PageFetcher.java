@@ -0,0 +1,137 @@
+package searchengine.parser;
+
+import org.springframework.stereotype.Component;
+import searchengine.config.Http;
+import searchengine.exceptions.ReadingException;
+import searchengine.exceptions.ThreadException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Неблокирующая загрузка страниц. Запрос не занимает поток на время ожидания ответа,
+ * поэтому одновременно могут выполняться тысячи запросов без тысяч потоков.
+ * Ответы запрашиваются сжатыми, а не-HTML содержимое отбрасывается до загрузки тела.
+ */
+@Component
+public class PageFetcher {
+    private static final long MAX_RETRY_AFTER = 120_000;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private final Http http;
+    private final HttpClient client;
+    private final HtmlBodyHandler bodyHandler;
+
+    public PageFetcher(Http http, HttpClient client) {
+        this.http = http;
+        this.client = client;
+        this.bodyHandler = new HtmlBodyHandler(http.getMaxBodySize());
+    }
+
+    /**
+     * Синхронная загрузка одной страницы, например для {@code /api/indexPage}.
+     */
+    public PageResponse fetch(String url) {
+        try {
+            return fetchAsync(url).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ReadingException readingException) {
+                throw readingException;
+            }
+            throw new ReadingException("Не удалось прочитать страницу " + url + ": " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Синхронно открывает ответ как поток байт без проверки типа содержимого — для robots.txt и sitemap.xml,
+     * которые читаются потоково.
+     */
+    public HttpResponse<InputStream> openStream(String url) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (http.getTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(http.getTimeout()));
+        }
+        if (http.getUserAgent() != null) {
+            builder.header("User-Agent", http.getUserAgent());
+        }
+        try {
+            return client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadException("Индексация прервана пользователем");
+        }
+    }
+
+    public CompletableFuture<PageResponse> fetchAsync(String url) {
+        return fetchAsync(url, null);
+    }
+
+    /**
+     * Загружает страницу условным запросом, если известны валидаторы её прежней версии:
+     * неизменившаяся страница вернёт 304 без тела.
+     */
+    public CompletableFuture<PageResponse> fetchAsync(String url, StoredPage stored) {
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                    .header("Accept-Encoding", ACCEPT_ENCODING)
+                    .GET();
+            if (http.getTimeout() > 0) {
+                builder.timeout(Duration.ofMillis(http.getTimeout()));
+            }
+            if (http.getUserAgent() != null) {
+                builder.header("User-Agent", http.getUserAgent());
+            }
+            if (http.getReferrer() != null) {
+                builder.header("Referer", http.getReferrer());
+            }
+            if (stored != null && stored.getEtag() != null) {
+                builder.header("If-None-Match", stored.getEtag());
+            }
+            if (stored != null && stored.getLastModified() != null) {
+                builder.header("If-Modified-Since", stored.getLastModified());
+            }
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new ReadingException("Не валидный URL: " + url));
+        }
+        return client.sendAsync(request, bodyHandler)
+                .thenApply(response -> toPageResponse(url, response));
+    }
+
+    private PageResponse toPageResponse(String url, HttpResponse<String> response) {
+        long retryAfter = response.headers().firstValue("Retry-After")
+                .map(PageFetcher::parseRetryAfter)
+                .orElse(0L);
+        return new PageResponse(url, response.uri().toString(), response.statusCode(), response.body(), retryAfter,
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null));
+    }
+
+    /**
+     * Retry-After может быть задан числом секунд или датой в формате RFC 1123.
+     */
+    static long parseRetryAfter(String value) {
+        String trimmed = value.trim();
+        try {
+            return Math.min(MAX_RETRY_AFTER / 1000, Math.max(0, Long.parseLong(trimmed))) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                long millis = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli() - System.currentTimeMillis();
+                return Math.min(MAX_RETRY_AFTER, Math.max(0, millis));
+            } catch (DateTimeParseException ex) {
+                return 0;
+            }
+        }
+    }
+}
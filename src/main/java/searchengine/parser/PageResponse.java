@@ -0,0 +1,16 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class PageResponse {
+    private final String url;
+    private final String baseUrl;
+    private final int statusCode;
+    private final String body;
+    private final long retryAfter;
+    private final String etag;
+    private final String lastModified;
+}
@@ -0,0 +1,102 @@
+package searchengine.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Позиции леммы на странице: порядковый номер слова в тексте, по которому собирались леммы,
+ * и смещение начала слова в тексте страницы без заголовка (у слов заголовка оно отрицательное).
+ * Хранятся разностями в varint, смещения — в zigzag, поэтому обычно занимают 2–3 байта на вхождение.
+ */
+public final class Positions {
+    private int[] words;
+    private int[] offsets;
+    private int size;
+
+    public Positions() {
+        this(4);
+    }
+
+    private Positions(int capacity) {
+        words = new int[capacity];
+        offsets = new int[capacity];
+    }
+
+    public void add(int word, int offset) {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        words[size] = word;
+        offsets[size] = offset;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int word(int index) {
+        return words[index];
+    }
+
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size * 3 + 2);
+        writeVarint(out, size);
+        int previousWord = 0;
+        int previousOffset = 0;
+        for (int i = 0; i < size; i++) {
+            writeVarint(out, words[i] - previousWord);
+            int delta = offsets[i] - previousOffset;
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+            previousWord = words[i];
+            previousOffset = offsets[i];
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return {@code null}, если позиции не записаны
+     */
+    public static Positions decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        int[] cursor = {0};
+        int count = readVarint(data, cursor);
+        Positions positions = new Positions(Math.max(1, count));
+        int word = 0;
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            word += readVarint(data, cursor);
+            int zigzag = readVarint(data, cursor);
+            offset += (zigzag >>> 1) ^ -(zigzag & 1);
+            positions.add(word, offset);
+        }
+        return positions;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
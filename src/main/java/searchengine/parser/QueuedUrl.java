@@ -0,0 +1,25 @@
+package searchengine.parser;
+
+import lombok.Getter;
+
+/**
+ * Адрес в очереди обхода вместе с глубиной (числом переходов по ссылкам от корня сайта)
+ * и приоритетом: чем больше, тем раньше адрес будет загружен. Для адресов из sitemap.xml
+ * приоритет — время lastmod, поэтому свежие страницы обходятся первыми.
+ */
+@Getter
+public class QueuedUrl {
+    private final String url;
+    private final int depth;
+    private final long priority;
+
+    public QueuedUrl(String url, int depth) {
+        this(url, depth, 0);
+    }
+
+    public QueuedUrl(String url, int depth, long priority) {
+        this.url = url;
+        this.depth = depth;
+        this.priority = priority;
+    }
+}
@@ -0,0 +1,144 @@
+package searchengine.parser;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Правила robots.txt для нашего User-Agent: Allow/Disallow с шаблонами {@code *} и {@code $},
+ * Crawl-delay и ссылки на карты сайта. Из подходящих правил побеждает самое длинное,
+ * при равной длине — Allow.
+ */
+public class RobotsRules {
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), 0, List.of());
+
+    private final List<Rule> rules;
+    @Getter
+    private final double crawlDelay;
+    @Getter
+    private final List<String> sitemaps;
+
+    private RobotsRules(List<Rule> rules, double crawlDelay, List<String> sitemaps) {
+        this.rules = rules;
+        this.crawlDelay = crawlDelay;
+        this.sitemaps = sitemaps;
+    }
+
+    /**
+     * Разбирает robots.txt, выбирая группу с самым длинным User-Agent, который входит в {@code userAgent},
+     * а если такой нет — группу {@code *}.
+     */
+    public static RobotsRules parse(String content, String userAgent) {
+        String agent = userAgent == null ? "" : userAgent.toLowerCase(Locale.ROOT);
+        List<String> sitemaps = new ArrayList<>();
+        List<Group> groups = new ArrayList<>();
+        Group current = null;
+        boolean readingAgents = false;
+
+        for (String rawLine : content.split("\r?\n|\r")) {
+            int comment = rawLine.indexOf('#');
+            String line = (comment < 0 ? rawLine : rawLine.substring(0, comment)).trim();
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            switch (key) {
+                case "user-agent" -> {
+                    if (current == null || !readingAgents) {
+                        current = new Group();
+                        groups.add(current);
+                    }
+                    current.agents.add(value.toLowerCase(Locale.ROOT));
+                    readingAgents = true;
+                }
+                case "allow", "disallow" -> {
+                    readingAgents = false;
+                    if (current != null && !value.isEmpty()) {
+                        current.rules.add(new Rule(value, key.equals("allow")));
+                    }
+                }
+                case "crawl-delay" -> {
+                    readingAgents = false;
+                    if (current != null) {
+                        try {
+                            current.crawlDelay = Math.max(0, Double.parseDouble(value));
+                        } catch (NumberFormatException ignored) {
+                            // некорректная задержка не мешает остальным правилам
+                        }
+                    }
+                }
+                case "sitemap" -> sitemaps.add(value);
+                default -> readingAgents = false;
+            }
+        }
+
+        Group selected = null;
+        int selectedLength = -1;
+        for (Group group : groups) {
+            for (String groupAgent : group.agents) {
+                int length = groupAgent.equals("*") ? 0 : groupAgent.length();
+                boolean matches = groupAgent.equals("*") || agent.contains(groupAgent);
+                if (matches && length > selectedLength) {
+                    selected = group;
+                    selectedLength = length;
+                }
+            }
+        }
+        return selected == null
+                ? new RobotsRules(List.of(), 0, sitemaps)
+                : new RobotsRules(selected.rules, selected.crawlDelay, sitemaps);
+    }
+
+    /**
+     * @param path путь вместе со строкой запроса
+     */
+    public boolean isAllowed(String path) {
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.matches(path) && (best == null || rule.length > best.length
+                    || rule.length == best.length && rule.allow)) {
+                best = rule;
+            }
+        }
+        return best == null || best.allow;
+    }
+
+    private static final class Group {
+        private final List<String> agents = new ArrayList<>();
+        private final List<Rule> rules = new ArrayList<>();
+        private double crawlDelay;
+    }
+
+    private static final class Rule {
+        private final Pattern pattern;
+        private final int length;
+        private final boolean allow;
+
+        private Rule(String value, boolean allow) {
+            this.length = value.length();
+            this.allow = allow;
+            boolean anchored = value.endsWith("$");
+            String body = anchored ? value.substring(0, value.length() - 1) : value;
+            StringBuilder regex = new StringBuilder();
+            for (String part : body.split("\\*", -1)) {
+                if (!regex.isEmpty()) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(part));
+            }
+            if (!anchored) {
+                regex.append(".*");
+            }
+            this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        private boolean matches(String path) {
+            return pattern.matcher(path).matches();
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.config.Frontier;
+import searchengine.config.Site;
+import searchengine.exceptions.ReadingException;
+import searchengine.exceptions.ThreadException;
+import searchengine.model.SiteEntity;
+import searchengine.services.IndexingServiceImpl;
+
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Обход одного сайта. Страницы скачиваются асинхронно через {@link PageFetcher},
+ * а разбор ссылок выполняется задачами {@link HtmlParser} в {@link ForkJoinPool}.
+ * Темп запросов задаёт {@link HostLimiter} хоста сайта, а число страниц, которые одновременно
+ * находятся в памяти между загрузкой и сохранением, ограничено бюджетом {@code maxPagesInFlight}:
+ * пока конвейер не сохранит уже скачанные страницы, новые не загружаются, поэтому расход памяти
+ * не растёт с размером сайта. Очередь обхода хранит только адреса.
+ * Обход завершается, когда не остаётся ни ожидающих, ни обрабатываемых страниц.
+ */
+@Slf4j
+public class SiteCrawler {
+    private static final int MAX_RETRIES = 3;
+
+    @Getter
+    private final SiteEntity site;
+    @Getter
+    private final SitePipeline pipeline;
+    private final PageFetcher pageFetcher;
+    private final ForkJoinPool forkJoinPool;
+    private final HostLimiter limiter;
+    private final String host;
+    private final UrlFrontier frontier;
+    private final int maxDepth;
+    private final int maxPages;
+    private final Semaphore budget;
+    private final AtomicLong admitted = new AtomicLong();
+    private final Set<CompletableFuture<PageResponse>> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<String, QueuedUrl> active = new ConcurrentHashMap<>();
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+    /**
+     * Переход адреса между «встречен», очередью и {@link #active} выполняется под этой блокировкой,
+     * чтобы контрольная точка не застала адрес встреченным, но ни ожидающим, ни обрабатываемым.
+     */
+    private final Object handoff = new Object();
+    private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final AtomicLong unchanged = new AtomicLong();
+    private FingerprintSet persisted;
+    private Map<String, StoredPage> stored = Map.of();
+    private final FrontierSeeder seeder;
+    private volatile RobotsRules robots = RobotsRules.ALLOW_ALL;
+
+    public SiteCrawler(SiteEntity site, Site siteSettings, SitePipeline pipeline, PageFetcher pageFetcher,
+                       ForkJoinPool forkJoinPool, HostScheduler hostScheduler, Frontier frontierSettings,
+                       FrontierSeeder seeder) {
+        this.site = site;
+        this.seeder = seeder;
+        this.maxDepth = siteSettings == null ? 0 : siteSettings.getMaxDepth();
+        this.maxPages = siteSettings == null ? 0 : siteSettings.getMaxPages();
+        this.budget = new Semaphore(frontierSettings.getMaxPagesInFlight() > 0
+                ? frontierSettings.getMaxPagesInFlight() : Integer.MAX_VALUE);
+        this.pipeline = pipeline;
+        this.pageFetcher = pageFetcher;
+        this.forkJoinPool = forkJoinPool;
+        String root = UrlCanonicalizer.canonicalize(site.getUrl());
+        if (root == null) {
+            throw new ReadingException("Не валидный URL: " + site.getUrl());
+        }
+        this.host = UrlCanonicalizer.hostOf(root);
+        this.limiter = hostScheduler.forHost(host);
+        this.frontier = new UrlFrontier(frontierSettings);
+        pipeline.setSavedListener(active::remove);
+        pipeline.setReleaseListener(this::release);
+    }
+
+    /**
+     * Полный обход сайта: правила robots.txt, корень и адреса из карт сайта.
+     * Загрузка начинается, пока карты ещё читаются.
+     */
+    public void crawl(String rootUrl) {
+        pending.incrementAndGet();
+        seed(rootUrl);
+        complete();
+        await();
+    }
+
+    private void seed(String rootUrl) {
+        applyRobots(rootUrl);
+        schedule(rootUrl, 0);
+        if (seeder != null) {
+            seeder.seedSitemaps(this, rootUrl, robots);
+        }
+    }
+
+    /**
+     * Читает robots.txt и заново выставляет ограничение частоты по его Crawl-delay: ограничитель хоста
+     * общий для всех обходов, и задержка, которую сайт убрал, не должна действовать дальше.
+     */
+    private void applyRobots(String rootUrl) {
+        if (seeder != null) {
+            robots = seeder.loadRobots(rootUrl);
+        }
+        limiter.limitRate(robots.getCrawlDelay() > 0 ? 1 / robots.getCrawlDelay() : 0);
+    }
+
+    /**
+     * Ставит в очередь адрес из карты сайта с приоритетом по lastmod.
+     */
+    boolean seed(String url, long lastmod) {
+        if (enqueue(url, 1, lastmod)) {
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Повторный обход уже проиндексированного сайта. Все известные страницы сразу ставятся в очередь
+     * и запрашиваются условно; страницы, ответившие 304 или не изменившие хэш содержимого,
+     * не лемматизируются и не перезаписываются. Ссылки неизменившейся страницы тоже не изменились,
+     * поэтому новые страницы находятся по ссылкам изменившихся.
+     */
+    public void recrawl(String rootUrl, Map<String, StoredPage> stored) {
+        this.stored = stored;
+        pending.incrementAndGet();
+        seed(rootUrl);
+        stored.keySet().forEach(url -> enqueue(url, 0, 0));
+        complete();
+        dispatch();
+        await();
+        log.info("Сайт {}: без изменений {} из {} страниц", site.getUrl(), unchanged.get(), stored.size());
+    }
+
+    /**
+     * Продолжает обход с контрольной точки. Страницы, которые уже есть в БД ({@code persisted}),
+     * скачиваются повторно только ради ссылок и заново не сохраняются.
+     */
+    public void resume(CrawlCheckpoint checkpoint, FingerprintSet persisted) {
+        this.persisted = persisted;
+        applyRobots(site.getUrl());
+        frontier.restore(checkpoint.getSeen());
+        admitted.set(checkpoint.getSeen().length);
+        for (QueuedUrl queued : checkpoint.getQueued()) {
+            pending.incrementAndGet();
+            frontier.markSeen(queued.getUrl());
+            frontier.requeue(queued);
+        }
+        if (pending.get() == 0) {
+            done.complete(null);
+        }
+        dispatch();
+        await();
+    }
+
+    /**
+     * Снимок состояния обхода для контрольной точки: все встреченные адреса и те,
+     * что ещё не сохранены в БД — ожидающие в очереди, загружаемые и находящиеся в конвейере.
+     */
+    public CrawlCheckpoint checkpoint() {
+        synchronized (handoff) {
+            long[] seen = frontier.seenFingerprints();
+            Map<String, QueuedUrl> unfinished = new LinkedHashMap<>(active);
+            frontier.queuedUrls().forEach(queued -> unfinished.putIfAbsent(queued.getUrl(), queued));
+            return new CrawlCheckpoint(site.getUrl(), seen, new ArrayList<>(unfinished.values()));
+        }
+    }
+
+    public boolean isPersisted(String canonicalUrl) {
+        return persisted != null && persisted.contains(UrlCanonicalizer.fingerprint(canonicalUrl));
+    }
+
+    void markSaved(String canonicalUrl) {
+        active.remove(canonicalUrl);
+    }
+
+    StoredPage storedPage(String canonicalUrl) {
+        return stored.get(canonicalUrl);
+    }
+
+    void markUnchanged(String canonicalUrl) {
+        unchanged.incrementAndGet();
+        active.remove(canonicalUrl);
+    }
+
+    /**
+     * Возвращает место в бюджете страниц, когда скачанная страница покидает память.
+     */
+    void release() {
+        budget.release();
+        dispatch();
+    }
+
+    private void await() {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new ThreadException("Индексация прервана пользователем");
+        } catch (CancellationException | ExecutionException e) {
+            throw new ThreadException("Индексация прервана пользователем");
+        }
+    }
+
+    /**
+     * Ставит ссылку в очередь обхода, если она ведёт на этот же сайт и ещё не встречалась.
+     */
+    public void schedule(String url, int depth) {
+        if (enqueue(url, depth, 0)) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Ставит в очередь все ссылки страницы разом и запускает загрузку один раз на пачку.
+     */
+    public void scheduleAll(List<String> urls, int depth) {
+        if (maxDepth > 0 && depth > maxDepth) {
+            return;
+        }
+        boolean added = false;
+        for (String url : urls) {
+            added |= enqueue(url, depth, 0);
+        }
+        if (added) {
+            dispatch();
+        }
+    }
+
+    private boolean enqueue(String url, int depth, long priority) {
+        if (IndexingServiceImpl.stopRequested.get() || done.isDone()) {
+            return false;
+        }
+        if (maxDepth > 0 && depth > maxDepth) {
+            return false;
+        }
+        String canonicalUrl = UrlCanonicalizer.canonicalize(url);
+        if (canonicalUrl == null || !UrlCanonicalizer.hostOf(canonicalUrl).equals(host)
+                || UrlCanonicalizer.pathOf(canonicalUrl).length() > UrlCanonicalizer.MAX_PATH_LENGTH) {
+            return false;
+        }
+        if (!robots.isAllowed(UrlCanonicalizer.pathOf(canonicalUrl))) {
+            return false;
+        }
+        synchronized (handoff) {
+            if (!frontier.markSeen(canonicalUrl)) {
+                return false;
+            }
+            if (maxPages > 0 && admitted.incrementAndGet() > maxPages) {
+                return false;
+            }
+            pending.incrementAndGet();
+            frontier.requeue(new QueuedUrl(canonicalUrl, depth, priority));
+            return true;
+        }
+    }
+
+    public UrlFrontier getFrontier() {
+        return frontier;
+    }
+
+    /**
+     * Отменяет все выполняющиеся запросы и завершает обход.
+     */
+    public void cancel() {
+        frontier.clear();
+        inFlight.forEach(future -> future.cancel(true));
+        done.cancel(true);
+    }
+
+    void complete() {
+        if (pending.decrementAndGet() == 0) {
+            done.complete(null);
+        }
+    }
+
+    private void dispatch() {
+        while (!frontier.isEmpty() && !done.isDone()) {
+            if (!budget.tryAcquire()) {
+                return;
+            }
+            long delay = limiter.tryAcquire();
+            if (delay == HostLimiter.BUSY) {
+                budget.release();
+                return;
+            }
+            if (delay > 0) {
+                budget.release();
+                wakeUpAfter(delay);
+                return;
+            }
+            QueuedUrl next;
+            synchronized (handoff) {
+                next = frontier.poll();
+                if (next != null) {
+                    active.put(next.getUrl(), next);
+                }
+            }
+            if (next == null) {
+                limiter.release();
+                budget.release();
+                continue;
+            }
+            fetch(next);
+        }
+    }
+
+    private void wakeUpAfter(long delay) {
+        if (wakeUpScheduled.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                wakeUpScheduled.set(false);
+                dispatch();
+            }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void fetch(QueuedUrl next) {
+        String url = next.getUrl();
+        long start = System.nanoTime();
+        CompletableFuture<PageResponse> future = pageFetcher.fetchAsync(url, stored.get(url));
+        inFlight.add(future);
+        future.whenComplete((response, error) -> {
+            inFlight.remove(future);
+            boolean handedOff = false;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                limiter.onFailure(cause instanceof HttpTimeoutException);
+                if (!(cause instanceof CancellationException)) {
+                    log.warn("Ошибка загрузки страницы {}: {}", url, cause.getMessage());
+                    active.remove(url);
+                }
+                complete();
+            } else if (response.getStatusCode() == 429 || response.getStatusCode() == 503) {
+                limiter.onThrottle(response.getRetryAfter());
+                retry(next, response.getStatusCode());
+            } else {
+                limiter.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (response.getStatusCode() == 304) {
+                    markUnchanged(url);
+                    complete();
+                } else if (response.getStatusCode() >= 400) {
+                    log.warn("Страница {} вернула код {}", url, response.getStatusCode());
+                    active.remove(url);
+                    complete();
+                } else {
+                    handedOff = process(next, response);
+                }
+            }
+            if (!handedOff) {
+                budget.release();
+            }
+            dispatch();
+        });
+    }
+
+    private void retry(QueuedUrl next, int statusCode) {
+        String url = next.getUrl();
+        if (attempts.merge(url, 1, Integer::sum) > MAX_RETRIES) {
+            log.warn("Страница {} недоступна: код {} после {} попыток", url, statusCode, MAX_RETRIES);
+            attempts.remove(url);
+            active.remove(url);
+            complete();
+            return;
+        }
+        frontier.requeue(next);
+        active.remove(url);
+    }
+
+    private boolean process(QueuedUrl next, PageResponse response) {
+        try {
+            forkJoinPool.execute(new HtmlParser(this, next.getDepth(), response));
+            return true;
+        } catch (RejectedExecutionException e) {
+            complete();
+            return false;
+        }
+    }
+}
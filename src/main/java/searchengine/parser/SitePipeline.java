@@ -0,0 +1,222 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.config.Pipeline;
+import searchengine.dto.statistics.PipelineStatistics;
+import searchengine.exceptions.ThreadException;
+import searchengine.model.SiteEntity;
+import searchengine.services.IndexingPageService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Конвейер индексации одного сайта: обходчик кладёт скачанные страницы в очередь лемматизации,
+ * несколько лемматизаторов параллельно собирают леммы, а единственный писатель
+ * сохраняет страницы, леммы и индексы пачками. Очереди ограничены, поэтому
+ * переполненная стадия тормозит предыдущую.
+ */
+@Slf4j
+public class SitePipeline {
+    private static final CrawledPage END = new CrawledPage(null, null, 0, null, null, null, null, null);
+
+    @Getter
+    private final SiteEntity site;
+    private final Pipeline settings;
+    private final LemmaFinder lemmaFinder;
+    private final IndexingPageService indexingPageService;
+    private final BlockingQueue<CrawledPage> lemmaQueue;
+    private final BlockingQueue<CrawledPage> writeQueue;
+    private final AtomicInteger activeLemmatizers;
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong lemmatized = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+    private final LemmaDictionary lemmaDictionary;
+    private Future<?> writer;
+    @Setter
+    private Consumer<String> savedListener = url -> {
+    };
+    /**
+     * Вызывается для каждой страницы, покинувшей конвейер, — сохранённой или отброшенной.
+     */
+    @Setter
+    private Runnable releaseListener = () -> {
+    };
+
+    public SitePipeline(SiteEntity site, Pipeline settings,
+                        LemmaFinder lemmaFinder, IndexingPageService indexingPageService) {
+        this.site = site;
+        this.settings = settings;
+        this.lemmaFinder = lemmaFinder;
+        this.indexingPageService = indexingPageService;
+        this.lemmaQueue = new ArrayBlockingQueue<>(settings.getLemmaQueueCapacity());
+        this.writeQueue = new ArrayBlockingQueue<>(settings.getWriteQueueCapacity());
+        this.activeLemmatizers = new AtomicInteger(settings.getLemmatizers());
+        this.lemmaDictionary = new LemmaDictionary(settings.getLemmaFlushInterval());
+    }
+
+    void start(ExecutorService executorService) {
+        for (int i = 0; i < settings.getLemmatizers(); i++) {
+            executorService.execute(this::runLemmatizer);
+        }
+        writer = executorService.submit(this::runWriter);
+    }
+
+    public void submit(CrawledPage page) {
+        put(lemmaQueue, page);
+        fetched.incrementAndGet();
+    }
+
+    /**
+     * Сообщает, что обход сайта закончен, и ждёт, пока писатель сохранит всё, что осталось в очередях.
+     */
+    public void finish() {
+        for (int i = 0; i < settings.getLemmatizers(); i++) {
+            put(lemmaQueue, END);
+        }
+        try {
+            writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadException("Индексация прервана пользователем");
+        } catch (CancellationException | ExecutionException e) {
+            throw new ThreadException("Сохранение страниц сайта " + site.getUrl() + " прервано");
+        }
+    }
+
+    public PipelineStatistics getStatistics() {
+        PipelineStatistics statistics = new PipelineStatistics();
+        statistics.setLemmaQueue(lemmaQueue.size());
+        statistics.setWriteQueue(writeQueue.size());
+        statistics.setFetched(fetched.get());
+        statistics.setLemmatized(lemmatized.get());
+        statistics.setSaved(saved.get());
+        return statistics;
+    }
+
+    private void runLemmatizer() {
+        try {
+            CrawledPage page;
+            while ((page = lemmaQueue.take()) != END) {
+                try {
+                    lemmaFinder.collectLemmas(page);
+                } catch (Exception e) {
+                    log.warn("Не удалось собрать леммы страницы {}: {}", page.getUrl(), e.getMessage());
+                    releaseListener.run();
+                    continue;
+                }
+                writeQueue.put(page);
+                lemmatized.incrementAndGet();
+            }
+            if (activeLemmatizers.decrementAndGet() == 0) {
+                writeQueue.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        int batchSize = Math.max(1, settings.getWriteBatchSize());
+        List<CrawledPage> batch = new ArrayList<>(batchSize);
+        try {
+            boolean finished = false;
+            while (!finished) {
+                batch.add(writeQueue.take());
+                writeQueue.drainTo(batch, batchSize - 1);
+                if (batch.get(batch.size() - 1) == END) {
+                    batch.remove(batch.size() - 1);
+                    finished = true;
+                }
+                write(batch);
+                batch.clear();
+                if (lemmaDictionary.isFlushDue()) {
+                    flushLemmas();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            boolean interrupted = Thread.interrupted();
+            if (!flushLemmas()) {
+                recountFrequencies();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean flushLemmas() {
+        try {
+            indexingPageService.flushLemmas(site, lemmaDictionary);
+            return true;
+        } catch (Exception e) {
+            log.error("Ошибка при сохранении частот лемм сайта {}: {}", site.getUrl(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Последний шанс после неудачного финального сброса: иначе несохранённые изменения частот пропали бы.
+     */
+    private void recountFrequencies() {
+        try {
+            indexingPageService.recountFrequencies(site);
+        } catch (Exception e) {
+            log.error("Не удалось пересчитать частоты лемм сайта {}: {}", site.getUrl(), e.getMessage(), e);
+        }
+    }
+
+    private void write(List<CrawledPage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            store(batch);
+        } finally {
+            batch.forEach(page -> releaseListener.run());
+        }
+    }
+
+    /**
+     * Сохраняет страницы одной транзакцией. Если она откатилась, страницы сохраняются двумя половинами,
+     * так что из-за одной плохой страницы теряется только она сама.
+     */
+    private void store(List<CrawledPage> pages) {
+        try {
+            indexingPageService.resolveLemmaIds(site, pages, lemmaDictionary);
+            lemmaDictionary.addAll(indexingPageService.indexPages(site, pages, lemmaDictionary));
+            saved.addAndGet(pages.size());
+            pages.forEach(page -> savedListener.accept(page.getUrl()));
+        } catch (Exception e) {
+            // id лемм, полученные в откатившейся транзакции, могли не сохраниться
+            pages.stream().filter(page -> page.getLemmas() != null)
+                    .forEach(page -> lemmaDictionary.evict(page.getLemmas().keySet()));
+            if (pages.size() == 1) {
+                log.error("Ошибка при сохранении страницы {}: {}", pages.get(0).getUrl(), e.getMessage(), e);
+                return;
+            }
+            log.warn("Пачка из {} страниц сайта {} не сохранена ({}), сохраняю по частям",
+                    pages.size(), site.getUrl(), e.getMessage());
+            int middle = pages.size() / 2;
+            store(pages.subList(0, middle));
+            store(pages.subList(middle, pages.size()));
+        }
+    }
+
+    private void put(BlockingQueue<CrawledPage> queue, CrawledPage page) {
+        try {
+            queue.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadException("Индексация прервана пользователем");
+        }
+    }
+}
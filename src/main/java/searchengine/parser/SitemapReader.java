@@ -0,0 +1,104 @@
+package searchengine.parser;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Потоковое чтение sitemap.xml через StAX: документ не строится в памяти целиком,
+ * поэтому карты на десятки тысяч адресов читаются с постоянным расходом памяти.
+ * Сжатые gzip карты распознаются по сигнатуре потока.
+ */
+public final class SitemapReader {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private SitemapReader() {
+    }
+
+    /**
+     * Читает {@code <urlset>} или {@code <sitemapindex>}: для адресов страниц вызывает {@code onUrl}
+     * с lastmod в миллисекундах (0, если он не указан), для вложенных карт — {@code onSitemap}.
+     */
+    public static void read(InputStream input, BiConsumer<String, Long> onUrl, Consumer<String> onSitemap)
+            throws IOException, XMLStreamException {
+        InputStream stream = unzipIfNeeded(new BufferedInputStream(input));
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(stream);
+        try {
+            boolean inSitemap = false;
+            String loc = null;
+            long lastmod = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "sitemap" -> {
+                            inSitemap = true;
+                            loc = null;
+                        }
+                        case "url" -> {
+                            inSitemap = false;
+                            loc = null;
+                            lastmod = 0;
+                        }
+                        case "loc" -> loc = reader.getElementText().trim();
+                        case "lastmod" -> lastmod = parseLastmod(reader.getElementText().trim());
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && loc != null) {
+                    if (inSitemap && reader.getLocalName().equals("sitemap")) {
+                        onSitemap.accept(loc);
+                        loc = null;
+                    } else if (!inSitemap && reader.getLocalName().equals("url")) {
+                        onUrl.accept(loc, lastmod);
+                        loc = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    static long parseLastmod(String value) {
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDate.parse(value.length() > 10 ? value.substring(0, 10) : value)
+                        .atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (DateTimeParseException ex) {
+                return 0;
+            }
+        }
+    }
+
+    private static InputStream unzipIfNeeded(BufferedInputStream input) throws IOException {
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(input);
+        }
+        return input;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,18 @@
+package searchengine.parser;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Валидаторы уже сохранённой страницы, по которым повторный обход решает,
+ * изменилась ли она: ETag и Last-Modified для условного запроса и хэш содержимого.
+ */
+@Getter
+@RequiredArgsConstructor
+public class StoredPage {
+    private final Integer id;
+    private final String path;
+    private final String etag;
+    private final String lastModified;
+    private final String contentHash;
+}
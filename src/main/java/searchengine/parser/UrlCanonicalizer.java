@@ -0,0 +1,170 @@
+package searchengine.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Приведение URL к каноническому виду за один проход по строке, без {@link java.net.URL}:
+ * схема и хост в нижнем регистре, без порта по умолчанию, фрагмента и служебных
+ * параметров, с разобранными сегментами "." и "..", без завершающего "/" и
+ * с отсортированными параметрами запроса.
+ */
+public final class UrlCanonicalizer {
+    public static final int MAX_PATH_LENGTH = 255;
+    private static final String[] TRACKING_PARAMS = {"utm_", "gclid", "fbclid", "yclid", "_openstat"};
+
+    private UrlCanonicalizer() {
+    }
+
+    /**
+     * @return канонический URL или {@code null}, если это не http(s)-адрес
+     */
+    public static String canonicalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        String s = url.trim();
+        int schemeEnd = s.indexOf("://");
+        if (schemeEnd <= 0) {
+            return null;
+        }
+        String scheme = s.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            return null;
+        }
+        int authorityStart = schemeEnd + 3;
+        int fragment = s.indexOf('#', authorityStart);
+        int end = fragment < 0 ? s.length() : fragment;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < end && "/?".indexOf(s.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        String authority = normalizeAuthority(s.substring(authorityStart, authorityEnd), scheme);
+        if (authority.isEmpty()) {
+            return null;
+        }
+        int queryStart = s.indexOf('?', authorityEnd);
+        if (queryStart > end) {
+            queryStart = -1;
+        }
+        String path = normalizePath(s.substring(authorityEnd, queryStart < 0 ? end : queryStart));
+        String query = queryStart < 0 ? "" : normalizeQuery(s.substring(queryStart + 1, end));
+
+        StringBuilder result = new StringBuilder(scheme.length() + authority.length() + path.length() + query.length() + 4);
+        result.append(scheme).append("://").append(authority).append(path);
+        if (!query.isEmpty()) {
+            result.append('?').append(query);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Путь вместе со строкой запроса, как он хранится в {@code pages.path}.
+     */
+    public static String pathOf(String canonicalUrl) {
+        int authorityStart = canonicalUrl.indexOf("://") + 3;
+        int pathStart = canonicalUrl.indexOf('/', authorityStart);
+        return pathStart < 0 ? "/" : canonicalUrl.substring(pathStart);
+    }
+
+    public static String hostOf(String canonicalUrl) {
+        int authorityStart = canonicalUrl.indexOf("://") + 3;
+        int pathStart = canonicalUrl.indexOf('/', authorityStart);
+        String authority = pathStart < 0 ? canonicalUrl.substring(authorityStart) : canonicalUrl.substring(authorityStart, pathStart);
+        int port = authority.lastIndexOf(':');
+        return port < 0 ? authority : authority.substring(0, port);
+    }
+
+    /**
+     * 64-битный отпечаток канонического URL: FNV-1a по символам с финальным перемешиванием из MurmurHash3.
+     * Ноль не возвращается никогда, он занят под пустую ячейку в {@link FingerprintSet}.
+     */
+    public static long fingerprint(String canonicalUrl) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < canonicalUrl.length(); i++) {
+            hash ^= canonicalUrl.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static String normalizeAuthority(String authority, String scheme) {
+        int userInfo = authority.lastIndexOf('@');
+        if (userInfo >= 0) {
+            authority = authority.substring(userInfo + 1);
+        }
+        authority = authority.toLowerCase(Locale.ROOT);
+        int port = authority.lastIndexOf(':');
+        if (port >= 0 && authority.indexOf(']') < port) {
+            String portValue = authority.substring(port + 1);
+            if (portValue.isEmpty()
+                    || (scheme.equals("http") && portValue.equals("80"))
+                    || (scheme.equals("https") && portValue.equals("443"))) {
+                authority = authority.substring(0, port);
+            }
+        }
+        if (authority.endsWith(".")) {
+            authority = authority.substring(0, authority.length() - 1);
+        }
+        return authority;
+    }
+
+    private static String normalizePath(String path) {
+        if (path.isEmpty() || path.equals("/")) {
+            return "/";
+        }
+        if (path.indexOf("/.") < 0 && path.indexOf("//") < 0) {
+            return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+                continue;
+            }
+            segments.add(segment);
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    private static String normalizeQuery(String query) {
+        if (query.isEmpty()) {
+            return "";
+        }
+        String[] params = query.split("&");
+        int count = 0;
+        for (String param : params) {
+            if (!param.isEmpty() && !isTrackingParam(param)) {
+                params[count++] = param;
+            }
+        }
+        if (count == 0) {
+            return "";
+        }
+        String[] kept = Arrays.copyOf(params, count);
+        Arrays.sort(kept);
+        return String.join("&", kept);
+    }
+
+    private static boolean isTrackingParam(String param) {
+        String name = param.toLowerCase(Locale.ROOT);
+        for (String prefix : TRACKING_PARAMS) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+package searchengine.parser;
+
+import searchengine.config.Frontier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Граница обхода сайта: очередь канонических URL, ожидающих загрузки, и множество
+ * отпечатков уже встреченных адресов. Каждый адрес попадает в очередь не больше одного раза.
+ * Очередь упорядочена по приоритету адреса, при равном приоритете — по времени добавления.
+ */
+public class UrlFrontier {
+    private final FingerprintSet seen;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Queue<Entry> queue = new PriorityBlockingQueue<>(64,
+            Comparator.comparingLong((Entry entry) -> -entry.queuedUrl.getPriority())
+                    .thenComparingLong(entry -> entry.sequence));
+
+    public UrlFrontier(Frontier settings) {
+        this.seen = new FingerprintSet(settings.getExpectedUrls());
+    }
+
+    /**
+     * Запоминает URL как встреченный, не ставя его в очередь.
+     */
+    public boolean markSeen(String canonicalUrl) {
+        return seen.add(UrlCanonicalizer.fingerprint(canonicalUrl));
+    }
+
+    /**
+     * Возвращает URL в очередь, например для повторной попытки после 429/503.
+     */
+    public void requeue(QueuedUrl queuedUrl) {
+        queue.add(new Entry(queuedUrl, sequence.getAndIncrement()));
+    }
+
+    public QueuedUrl poll() {
+        Entry entry = queue.poll();
+        return entry == null ? null : entry.queuedUrl;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public long seenCount() {
+        return seen.size();
+    }
+
+    public long memoryBytes() {
+        return seen.memoryBytes();
+    }
+
+    public List<QueuedUrl> queuedUrls() {
+        List<QueuedUrl> queued = new ArrayList<>(queue.size());
+        queue.forEach(entry -> queued.add(entry.queuedUrl));
+        return queued;
+    }
+
+    public long[] seenFingerprints() {
+        long[][] result = {new long[(int) Math.max(16, seen.size())]};
+        int[] count = {0};
+        seen.forEach(value -> {
+            if (count[0] == result[0].length) {
+                result[0] = Arrays.copyOf(result[0], count[0] * 2);
+            }
+            result[0][count[0]++] = value;
+        });
+        return Arrays.copyOf(result[0], count[0]);
+    }
+
+    /**
+     * Восстанавливает множество встреченных адресов из контрольной точки.
+     */
+    public void restore(long[] fingerprints) {
+        for (long fingerprint : fingerprints) {
+            seen.add(fingerprint);
+        }
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    private static final class Entry {
+        private final QueuedUrl queuedUrl;
+        private final long sequence;
+
+        private Entry(QueuedUrl queuedUrl, long sequence) {
+            this.queuedUrl = queuedUrl;
+            this.sequence = sequence;
+        }
+    }
+}
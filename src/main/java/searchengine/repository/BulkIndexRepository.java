@@ -0,0 +1,434 @@
+package searchengine.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.model.CompressedTextConverter;
+import searchengine.model.PageEntity;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Пакетная запись страниц, лемм и индексов через JDBC в обход {@code save()} по одной сущности.
+ * Строки вставляются многострочными {@code INSERT ... VALUES (...), (...)}, а сгенерированные
+ * ключи читаются из того же запроса, поэтому IDENTITY-ключи не мешают пакетной вставке.
+ * Вызывается внутри транзакции JPA и использует её соединение.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BulkIndexRepository {
+    private static final int MAX_ROWS = 1000;
+    private static final long MAX_PAGE_BYTES = 4L * 1024 * 1024;
+    private static final int DELETE_PAGES_CHUNK = 200;
+    private static final int DELETE_LEMMAS_CHUNK = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    /**
+     * Вставляет страницы сайта и проставляет им id.
+     */
+    public void insertPages(int siteId, List<PageEntity> pages) {
+        List<PageEntity> chunk = new ArrayList<>();
+        long chunkBytes = 0;
+        for (PageEntity page : pages) {
+            long pageBytes = 2L * page.getContent().length() + lengthOf(page.getPlainText());
+            if (!chunk.isEmpty() && (chunk.size() == MAX_ROWS || chunkBytes + pageBytes > MAX_PAGE_BYTES)) {
+                insertPageChunk(siteId, chunk);
+                chunk.clear();
+                chunkBytes = 0;
+            }
+            chunk.add(page);
+            chunkBytes += pageBytes;
+        }
+        if (!chunk.isEmpty()) {
+            insertPageChunk(siteId, chunk);
+        }
+    }
+
+    /**
+     * Перезаписывает содержимое страницы.
+     *
+     * @return {@code false}, если страницы с таким id уже нет
+     */
+    public boolean updatePage(PageEntity page) {
+        return jdbcTemplate.update("UPDATE pages SET code = ?, content = ?, title = ?, plain_text_z = ?, " +
+                        "etag = ?, last_modified = ?, content_hash = ? WHERE id = ?",
+                page.getCode(), page.getContent(), page.getTitle(), CompressedTextConverter.compress(page.getPlainText()),
+                page.getEtag(), page.getLastModified(), page.getContentHash(), page.getId()) > 0;
+    }
+
+    /**
+     * Находит или создаёт леммы сайта и возвращает их id: новые леммы создаются с нулевой частотой,
+     * частоты прибавляются позже через {@link #upsertFrequencies}. Вызывается до транзакции записи страниц,
+     * чтобы id можно было сразу закэшировать в словаре сайта, а транзакция страниц занимала одно соединение.
+     */
+    @Transactional
+    public Map<String, Integer> resolveLemmaIds(int siteId, Collection<String> lemmas) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (List<String> chunk : chunks(new ArrayList<>(lemmas))) {
+            Object[] insertArgs = new Object[chunk.size() * 2];
+            for (int i = 0; i < chunk.size(); i++) {
+                insertArgs[i * 2] = siteId;
+                insertArgs[i * 2 + 1] = chunk.get(i);
+            }
+            jdbcTemplate.update("INSERT IGNORE INTO lemmas (site_id, lemma, frequency) VALUES "
+                    + String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, 0)")), insertArgs);
+
+            Object[] selectArgs = new Object[chunk.size() + 1];
+            selectArgs[0] = siteId;
+            for (int i = 0; i < chunk.size(); i++) {
+                selectArgs[i + 1] = chunk.get(i);
+            }
+            jdbcTemplate.query("SELECT id, lemma FROM lemmas WHERE site_id = ? AND lemma IN ("
+                    + placeholders(chunk.size(), 1) + ")", (ResultSet rs) -> {
+                ids.put(rs.getString("lemma"), rs.getInt("id"));
+            }, selectArgs);
+        }
+        return ids;
+    }
+
+    /**
+     * Прибавляет накопленные изменения частот одним пакетом upsert по уникальному ключу (site_id, lemma).
+     */
+    public void upsertFrequencies(int siteId, Map<String, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(deltas.size());
+        deltas.forEach((lemma, delta) -> args.add(new Object[]{siteId, lemma, Math.max(0, delta), delta}));
+        jdbcTemplate.batchUpdate("INSERT INTO lemmas (site_id, lemma, frequency) VALUES (?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE frequency = frequency + ?", args);
+    }
+
+    /**
+     * Пересчитывает частоты лемм сайта по {@code search_index}. Индексы страниц-надгробий учитываются:
+     * их вклад вычитает {@link #purgePages} при уплотнении.
+     */
+    public void recountFrequencies(int siteId) {
+        jdbcTemplate.update("UPDATE lemmas l SET l.frequency = " +
+                "(SELECT COUNT(*) FROM search_index i WHERE i.lemma_id = l.id) WHERE l.site_id = ?", siteId);
+    }
+
+    /**
+     * @param rows тройки {@code {page_id, lemma_id, rank}}
+     */
+    public void insertIndexes(List<Object[]> rows) {
+        for (List<Object[]> chunk : chunks(rows)) {
+            String sql = "INSERT INTO search_index (page_id, lemma_id, field_rank, positions) VALUES "
+                    + placeholders(chunk.size(), 4);
+            Object[] args = new Object[chunk.size() * 4];
+            int index = 0;
+            for (Object[] row : chunk) {
+                args[index++] = row[0];
+                args[index++] = row[1];
+                args[index++] = row[2];
+                args[index++] = row[3];
+            }
+            jdbcTemplate.update(sql, args);
+        }
+    }
+
+    /**
+     * @param rows тройки {@code {rank, positions, index_id}}
+     */
+    public void updateRanks(List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE search_index SET field_rank = ?, positions = ? WHERE id = ?", rows);
+        }
+    }
+
+    /**
+     * Позиции лемм на страницах, по id страницы и лемме. Строки без позиций пропускаются.
+     */
+    public Map<Integer, Map<String, byte[]>> findPositions(Collection<Integer> pageIds, Collection<String> lemmas) {
+        Map<Integer, Map<String, byte[]>> positions = new HashMap<>();
+        if (lemmas.isEmpty()) {
+            return positions;
+        }
+        List<String> lemmaList = List.copyOf(lemmas);
+        for (List<Integer> chunk : chunks(List.copyOf(pageIds))) {
+            List<Object> args = new ArrayList<>(chunk);
+            args.addAll(lemmaList);
+            jdbcTemplate.query("SELECT i.page_id, l.lemma, i.positions FROM search_index i "
+                    + "JOIN lemmas l ON l.id = i.lemma_id WHERE i.page_id IN (" + placeholders(chunk.size(), 1)
+                    + ") AND l.lemma IN (" + placeholders(lemmaList.size(), 1) + ") AND i.positions IS NOT NULL",
+                    (ResultSet rs) -> {
+                        positions.computeIfAbsent(rs.getInt(1), id -> new HashMap<>()).put(rs.getString(2), rs.getBytes(3));
+                    }, args.toArray());
+        }
+        return positions;
+    }
+
+    public void deleteIndexes(List<Integer> ids) {
+        for (List<Integer> chunk : chunks(ids)) {
+            jdbcTemplate.update("DELETE FROM search_index WHERE id IN (" + placeholders(chunk.size(), 1) + ")",
+                    chunk.toArray());
+        }
+    }
+
+    /**
+     * Удаляет леммы сайта, частота которых опустилась до нуля и на которые не ссылается ни один индекс.
+     */
+    public void deleteUnusedLemmas(int siteId, Collection<String> lemmas) {
+        for (List<String> chunk : chunks(new ArrayList<>(lemmas))) {
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = siteId;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i);
+            }
+            jdbcTemplate.update("DELETE FROM lemmas WHERE site_id = ? AND frequency <= 0 AND lemma IN ("
+                    + placeholders(chunk.size(), 1) + ") AND NOT EXISTS "
+                    + "(SELECT 1 FROM search_index i WHERE i.lemma_id = lemmas.id)", args);
+        }
+    }
+
+    /**
+     * Скрывает страницу из поиска, не трогая её индексы: их вместе с частотами лемм
+     * позже уберёт {@link #purgePages}.
+     */
+    public void markTombstone(int pageId) {
+        jdbcTemplate.update("UPDATE pages SET tombstone = TRUE WHERE id = ?", pageId);
+    }
+
+    /**
+     * @return id устаревших страниц по id сайта, не больше {@code limit} штук
+     */
+    public Map<Integer, List<Integer>> findTombstones(int limit) {
+        Map<Integer, List<Integer>> tombstones = new HashMap<>();
+        jdbcTemplate.query("SELECT id, site_id FROM pages WHERE tombstone = TRUE ORDER BY id LIMIT ?", (ResultSet rs) -> {
+            tombstones.computeIfAbsent(rs.getInt("site_id"), siteId -> new ArrayList<>()).add(rs.getInt("id"));
+        }, limit);
+        return tombstones;
+    }
+
+    /**
+     * Окончательно удаляет устаревшие страницы: одним запросом вычитает их вклад из частот лемм,
+     * затем удаляет их индексы и сами страницы. Леммы с нулевой частотой удаляются, только если
+     * {@code deleteLemmas}: пока сайт индексируется, их id могут лежать в словаре конвейера.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void purgePages(List<Integer> pageIds, boolean deleteLemmas) {
+        for (List<Integer> chunk : chunks(pageIds)) {
+            String in = placeholders(chunk.size(), 1);
+            Object[] args = chunk.toArray();
+            List<Integer> lemmaIds = deleteLemmas
+                    ? jdbcTemplate.queryForList("SELECT DISTINCT lemma_id FROM search_index WHERE page_id IN (" + in + ")",
+                    Integer.class, args)
+                    : List.of();
+            jdbcTemplate.update("UPDATE lemmas l JOIN (SELECT lemma_id, COUNT(*) AS pages FROM search_index " +
+                    "WHERE page_id IN (" + in + ") GROUP BY lemma_id) d ON d.lemma_id = l.id " +
+                    "SET l.frequency = l.frequency - d.pages", args);
+            jdbcTemplate.update("DELETE FROM search_index WHERE page_id IN (" + in + ")", args);
+            jdbcTemplate.update("DELETE FROM pages WHERE tombstone = TRUE AND id IN (" + in + ")", args);
+            for (List<Integer> lemmaChunk : chunks(lemmaIds)) {
+                jdbcTemplate.update("DELETE FROM lemmas WHERE frequency <= 0 AND id IN (" + placeholders(lemmaChunk.size(), 1)
+                        + ") AND NOT EXISTS (SELECT 1 FROM search_index i WHERE i.lemma_id = lemmas.id)", lemmaChunk.toArray());
+            }
+        }
+    }
+
+    /**
+     * Потоково перебирает все индексы живых страниц, упорядоченные по лемме и странице, не загружая их в память.
+     */
+    public void forEachPosting(PostingHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT l.site_id, l.lemma, i.page_id, i.field_rank " +
+                    "FROM search_index i JOIN lemmas l ON l.id = i.lemma_id JOIN pages p ON p.id = i.page_id " +
+                    "WHERE p.tombstone = FALSE ORDER BY i.lemma_id, i.page_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getFloat(4));
+        });
+    }
+
+    /**
+     * То же для страниц с id в диапазоне {@code (fromExclusive, toInclusive]}.
+     */
+    public void forEachPosting(int fromExclusive, int toInclusive, PostingHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT l.site_id, l.lemma, i.page_id, i.field_rank " +
+                    "FROM search_index i JOIN lemmas l ON l.id = i.lemma_id JOIN pages p ON p.id = i.page_id " +
+                    "WHERE p.tombstone = FALSE AND i.page_id > ? AND i.page_id <= ? ORDER BY i.lemma_id, i.page_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setInt(1, fromExclusive);
+            ps.setInt(2, toInclusive);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getFloat(4));
+        });
+    }
+
+    /**
+     * Потоково перебирает живые страницы по возрастанию id с числом их индексов.
+     */
+    public void forEachPagePostingCount(PagePostingsHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT p.id, COUNT(i.id) FROM pages p " +
+                    "LEFT JOIN search_index i ON i.page_id = p.id WHERE p.tombstone = FALSE GROUP BY p.id ORDER BY p.id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getInt(1), rs.getInt(2));
+        });
+    }
+
+    /**
+     * Потоково перебирает заголовки живых страниц с id в диапазоне {@code (fromExclusive, toInclusive]}.
+     */
+    public void forEachPageTitle(int fromExclusive, int toInclusive, PageTitleHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT id, title FROM pages " +
+                    "WHERE tombstone = FALSE AND id > ? AND id <= ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setInt(1, fromExclusive);
+            ps.setInt(2, toInclusive);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getInt(1), rs.getString(2));
+        });
+    }
+
+    /**
+     * Удаляет страницы, индексы и леммы сайта, не загружая их в память. Страницы и их индексы удаляются
+     * порциями id, выбранными по {@code site_id} с {@code id > последний LIMIT n}, леммы — порциями с {@code LIMIT};
+     * каждая порция фиксируется отдельной транзакцией, чтобы не копить огромный undo-лог.
+     */
+    public void deleteSiteData(int siteId) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        int after = 0;
+        while (true) {
+            List<Integer> ids = jdbcTemplate.queryForList("SELECT id FROM pages WHERE site_id = ? AND id > ? ORDER BY id LIMIT ?",
+                    Integer.class, siteId, after, DELETE_PAGES_CHUNK);
+            if (ids.isEmpty()) {
+                break;
+            }
+            String in = placeholders(ids.size(), 1);
+            transaction.executeWithoutResult(status -> {
+                jdbcTemplate.update("DELETE FROM search_index WHERE page_id IN (" + in + ")", ids.toArray());
+                jdbcTemplate.update("DELETE FROM pages WHERE id IN (" + in + ")", ids.toArray());
+            });
+            after = ids.get(ids.size() - 1);
+        }
+
+        Integer deleted;
+        do {
+            deleted = transaction.execute(status ->
+                    jdbcTemplate.update("DELETE FROM lemmas WHERE site_id = ? LIMIT ?", siteId, DELETE_LEMMAS_CHUNK));
+        } while (deleted != null && deleted > 0);
+    }
+
+    /**
+     * Полная очистка всех таблиц индекса через TRUNCATE: таблицы пересоздаются целиком, без построчного удаления.
+     * TRUNCATE неявно фиксирует транзакцию, поэтому выполняется вне транзакции JPA.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void truncateAll() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+                try {
+                    statement.execute("TRUNCATE TABLE search_index");
+                    statement.execute("TRUNCATE TABLE lemmas");
+                    statement.execute("TRUNCATE TABLE pages");
+                    statement.execute("TRUNCATE TABLE sites");
+                } finally {
+                    statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+                }
+            }
+            return null;
+        });
+    }
+
+    private void insertPageChunk(int siteId, List<PageEntity> chunk) {
+        String sql = "INSERT INTO pages (site_id, path, code, content, title, plain_text_z, etag, last_modified, content_hash) VALUES "
+                + placeholders(chunk.size(), 9);
+        List<Integer> keys = insertReturningKeys(sql, ps -> {
+            int index = 1;
+            for (PageEntity page : chunk) {
+                ps.setInt(index++, siteId);
+                ps.setString(index++, page.getPath());
+                ps.setInt(index++, page.getCode());
+                ps.setString(index++, page.getContent());
+                ps.setString(index++, page.getTitle());
+                ps.setBytes(index++, CompressedTextConverter.compress(page.getPlainText()));
+                ps.setString(index++, page.getEtag());
+                ps.setString(index++, page.getLastModified());
+                ps.setString(index++, page.getContentHash());
+            }
+        });
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).setId(keys.get(i));
+        }
+    }
+
+    private List<Integer> insertReturningKeys(String sql, StatementBinder binder) {
+        return jdbcTemplate.execute((ConnectionCallback<List<Integer>>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                binder.bind(ps);
+                ps.executeUpdate();
+                List<Integer> keys = new ArrayList<>();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    while (rs.next()) {
+                        keys.add(rs.getInt(1));
+                    }
+                }
+                return keys;
+            }
+        });
+    }
+
+    private static String placeholders(int rows, int columns) {
+        String row = columns == 1 ? "?" : "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+        return String.join(", ", Collections.nCopies(rows, row));
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += MAX_ROWS) {
+            chunks.add(items.subList(i, Math.min(items.size(), i + MAX_ROWS)));
+        }
+        return chunks;
+    }
+
+    private static int lengthOf(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    @FunctionalInterface
+    public interface PostingHandler {
+        void accept(int siteId, String lemma, int pageId, float rank);
+    }
+
+    @FunctionalInterface
+    public interface PagePostingsHandler {
+        void accept(int pageId, int postings);
+    }
+
+    @FunctionalInterface
+    public interface PageTitleHandler {
+        void accept(int pageId, String title);
+    }
+
+    @FunctionalInterface
+    private interface StatementBinder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+}
@@ -1,26 +1,29 @@
 package searchengine.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import searchengine.model.IndexEntity;
 import searchengine.model.LemmaEntity;
 import searchengine.model.PageEntity;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface IndexRepository extends JpaRepository<IndexEntity, Integer> {
     List<IndexEntity> findAllIndexByPageId(Integer pageId);
-    @Modifying
-    @Query("DELETE FROM IndexEntity i WHERE i.page IN :pages")
-    void deleteIndexByPage(@Param("pages")List<PageEntity> pages);
 
-    @Query("SELECT i.page FROM IndexEntity i where i.lemma = :lemma")
-    List<PageEntity> findPagesByLemma(@Param("lemma")LemmaEntity lemma);
+    @Query("SELECT i FROM IndexEntity i JOIN FETCH i.lemma WHERE i.page.id = :pageId")
+    List<IndexEntity> findAllWithLemmaByPageId(@Param("pageId") Integer pageId);
 
     List<LemmaEntity> findLemmasByPage(PageEntity page);
 
-    @Query("SELECT SUM(i.rank) FROM IndexEntity i WHERE i.page = :page")
-    Float findSumAllFrequenciesByPage(@Param("page") PageEntity page);
+    /**
+     * Живые страницы, на которых есть все {@code count} лемм, и сумма рангов этих лемм на каждой.
+     *
+     * @return пары (id страницы, сумма рангов)
+     */
+    @Query("SELECT i.page.id, SUM(i.rank) FROM IndexEntity i WHERE i.lemma IN :lemmas AND i.page.tombstone = false "
+            + "GROUP BY i.page.id HAVING COUNT(i) = :count")
+    List<Object[]> sumRanksOfPagesWithAllLemmas(@Param("lemmas") Collection<LemmaEntity> lemmas, @Param("count") long count);
 }
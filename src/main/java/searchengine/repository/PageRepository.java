@@ -1,27 +1,46 @@
 package searchengine.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
+import searchengine.parser.StoredPage;
+import searchengine.services.FoundPage;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PageRepository extends JpaRepository<PageEntity, Integer> {
-    @Modifying
-    @Query("DELETE FROM PageEntity p WHERE p.site.id IN :siteIds")
-    void deletePageBySiteId(@Param("siteIds")List<Integer> siteIds);
 
-    PageEntity findPageByPathAndSite(String path, SiteEntity site);
+    PageEntity findPageByPathAndSiteAndTombstoneFalse(String path, SiteEntity site);
 
-    @Query(value = "SELECT COUNT(*) FROM pages WHERE site_id = :id", nativeQuery = true)
+    @Query(value = "SELECT COUNT(*) FROM pages WHERE site_id = :id AND tombstone = FALSE", nativeQuery = true)
     Long findPagesById(@Param("id") Integer id);
 
-    Long countBySite(SiteEntity site);
+    Long countBySiteAndTombstoneFalse(SiteEntity site);
 
+    long countByTombstoneFalse();
 
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("SELECT p.path FROM PageEntity p WHERE p.site = :site AND p.tombstone = false")
+    Stream<String> streamPathsBySite(@Param("site") SiteEntity site);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("SELECT new searchengine.parser.StoredPage(p.id, p.path, p.etag, p.lastModified, p.contentHash) " +
+            "FROM PageEntity p WHERE p.site = :site AND p.tombstone = false")
+    Stream<StoredPage> streamStoredPagesBySite(@Param("site") SiteEntity site);
+
+    /**
+     * Поля страниц, нужные для выдачи поиска, без HTML страницы.
+     */
+    @Query("SELECT new searchengine.services.FoundPage(p.id, p.path, p.title, p.plainText) " +
+            "FROM PageEntity p WHERE p.id IN :ids")
+    List<FoundPage> findFoundPagesByIdIn(@Param("ids") Collection<Integer> ids);
 }
@@ -0,0 +1,185 @@
+package searchengine.repository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.Schema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Версионные миграции схемы поверх таблиц, созданных Hibernate. Скрипты {@code db/migration/V<номер>__<описание>.sql}
+ * применяются по возрастанию номера, применённые записываются в {@code schema_version}. Индекс, который уже
+ * существует под тем же именем, считается созданным. После миграций планы горячих запросов поиска и
+ * индексации проверяются через EXPLAIN: если для запроса недоступен ожидаемый индекс, в лог пишется предупреждение.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class SchemaMigrator {
+    private static final String LOCATION = "classpath:db/migration/V*__*.sql";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final String LOCK_NAME = "search_engine_schema";
+    private static final int ER_DUP_KEYNAME = 1061;
+
+    /**
+     * Запрос, таблица в его плане и индекс, который она должна использовать.
+     */
+    private static final String[][] HOT_QUERIES = {
+            {"SELECT i.page_id, SUM(i.field_rank) FROM search_index i JOIN pages p ON p.id = i.page_id "
+                    + "WHERE i.lemma_id IN (0, 1) AND p.tombstone = FALSE GROUP BY i.page_id HAVING COUNT(*) = 2",
+                    "i", "idx_index_lemma_page"},
+            {"SELECT id, lemma_id, field_rank FROM search_index WHERE page_id = 0", "search_index", "idx_index_page_lemma"},
+            {"SELECT id, frequency FROM lemmas WHERE site_id = 0 AND lemma = ''", "lemmas", "uk_lemma_site"},
+            {"SELECT id FROM pages WHERE site_id = 0 AND tombstone = FALSE AND path = '/'", "pages", "idx_pages_site_live"},
+            {"SELECT COUNT(*) FROM pages WHERE site_id = 0 AND tombstone = FALSE", "pages", "idx_pages_site_live"}
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Schema settings;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (settings.isMigrate()) {
+            migrate();
+        }
+        if (settings.isVerifyPlans()) {
+            verifyPlans();
+        }
+    }
+
+    public void migrate() throws IOException {
+        SortedMap<Integer, Resource> migrations = new TreeMap<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            Matcher matcher = FILE_NAME.matcher(Objects.requireNonNull(resource.getFilename()));
+            if (matcher.matches() && migrations.put(Integer.parseInt(matcher.group(1)), resource) != null) {
+                throw new IllegalStateException("Две миграции с номером " + matcher.group(1));
+            }
+        }
+        Map<Integer, String> scripts = new LinkedHashMap<>();
+        for (var entry : migrations.entrySet()) {
+            scripts.put(entry.getKey(), entry.getValue().getContentAsString(StandardCharsets.UTF_8));
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS schema_version (version INT NOT NULL PRIMARY KEY, "
+                        + "description VARCHAR(255) NOT NULL, applied_at DATETIME NOT NULL)");
+                try (ResultSet rs = statement.executeQuery("SELECT GET_LOCK('" + LOCK_NAME + "', 60)")) {
+                    if (!rs.next() || rs.getInt(1) != 1) {
+                        throw new SQLException("Не удалось получить блокировку миграций схемы");
+                    }
+                }
+                try {
+                    Set<Integer> applied = new HashSet<>();
+                    try (ResultSet rs = statement.executeQuery("SELECT version FROM schema_version")) {
+                        while (rs.next()) {
+                            applied.add(rs.getInt(1));
+                        }
+                    }
+                    for (var entry : scripts.entrySet()) {
+                        if (!applied.contains(entry.getKey())) {
+                            apply(connection, entry.getKey(), migrations.get(entry.getKey()).getFilename(), entry.getValue());
+                        }
+                    }
+                } finally {
+                    statement.executeQuery("SELECT RELEASE_LOCK('" + LOCK_NAME + "')").close();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Проверяет через EXPLAIN, что горячие запросы могут использовать свои индексы.
+     *
+     * @return число запросов, для которых ожидаемый индекс недоступен
+     */
+    public int verifyPlans() {
+        int problems = 0;
+        for (String[] query : HOT_QUERIES) {
+            try {
+                List<Map<String, Object>> plan = jdbcTemplate.queryForList("EXPLAIN " + query[0]);
+                if (!usesIndex(plan, query[1], query[2])) {
+                    problems++;
+                    log.warn("Запрос не может использовать индекс {}, план: {}\n{}", query[2], plan, query[0]);
+                }
+            } catch (RuntimeException e) {
+                problems++;
+                log.warn("Не удалось получить план запроса {}: {}", query[0], e.getMessage());
+            }
+        }
+        if (problems == 0) {
+            log.info("Планы {} горячих запросов используют индексы", HOT_QUERIES.length);
+        }
+        return problems;
+    }
+
+    private void apply(Connection connection, int version, String fileName, String script) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements(script)) {
+                try {
+                    statement.execute(sql);
+                } catch (SQLException e) {
+                    if (e.getErrorCode() != ER_DUP_KEYNAME) {
+                        throw e;
+                    }
+                    log.info("Миграция {}: индекс уже существует — {}", version, e.getMessage());
+                }
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, NOW())")) {
+            insert.setInt(1, version);
+            insert.setString(2, fileName);
+            insert.executeUpdate();
+        }
+        log.info("Миграция схемы {} применена за {} мс", fileName, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Индекс считается доступным, если оптимизатор выбрал его или хотя бы рассматривал: на почти пустых
+     * таблицах MySQL может предпочесть полный просмотр, и это не признак отсутствия индекса.
+     */
+    private static boolean usesIndex(List<Map<String, Object>> plan, String table, String index) {
+        for (Map<String, Object> row : plan) {
+            String extra = String.valueOf(row.get("Extra"));
+            if (extra.contains("no matching row") || extra.contains("Impossible WHERE")) {
+                return true;
+            }
+            if (table.equals(row.get("table"))) {
+                return index.equals(row.get("key")) || containsKey(row.get("possible_keys"), index);
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsKey(Object possibleKeys, String index) {
+        return possibleKeys != null && Arrays.asList(possibleKeys.toString().split(",")).contains(index);
+    }
+
+    private static List<String> statements(String script) {
+        StringBuilder cleaned = new StringBuilder();
+        for (String line : script.split("\\R")) {
+            if (!line.trim().startsWith("--")) {
+                cleaned.append(line).append('\n');
+            }
+        }
+        return Arrays.stream(cleaned.toString().split(";"))
+                .map(String::trim)
+                .filter(sql -> !sql.isEmpty())
+                .toList();
+    }
+}
@@ -0,0 +1,51 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import searchengine.config.Compaction;
+import searchengine.parser.IndexingPipeline;
+import searchengine.repository.BulkIndexRepository;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Фоновое уплотнение: удаляет страницы, помеченные надгробием при переиндексации,
+ * вместе с их индексами и вкладом в частоты лемм. Работает пачками, пока надгробия не кончатся.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CompactionService {
+
+    private final Compaction settings;
+    private final BulkIndexRepository bulkIndexRepository;
+    private final IndexingPipeline indexingPipeline;
+    private final SearchCache searchCache;
+
+    @Scheduled(fixedDelayString = "#{@compaction.interval}", initialDelayString = "#{@compaction.interval}")
+    public void compact() {
+        int batchSize = Math.max(1, settings.getBatchSize());
+        long start = System.currentTimeMillis();
+        int purged = 0;
+        try {
+            Map<Integer, List<Integer>> tombstones;
+            do {
+                tombstones = bulkIndexRepository.findTombstones(batchSize);
+                for (var entry : tombstones.entrySet()) {
+                    boolean indexing = indexingPipeline.findBySiteId(entry.getKey()).isPresent();
+                    bulkIndexRepository.purgePages(entry.getValue(), !indexing);
+                    searchCache.invalidateSite(entry.getKey());
+                    purged += entry.getValue().size();
+                }
+            } while (tombstones.values().stream().mapToInt(List::size).sum() == batchSize);
+        } catch (Exception e) {
+            log.error("Ошибка при уплотнении индекса: {}", e.getMessage(), e);
+        }
+        if (purged > 0) {
+            log.info("Удалено {} устаревших версий страниц за {} мс", purged, System.currentTimeMillis() - start);
+        }
+    }
+}
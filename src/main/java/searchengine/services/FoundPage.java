@@ -0,0 +1,16 @@
+package searchengine.services;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Страница из окна выдачи поиска: только то, из чего строятся заголовок и сниппет, без HTML.
+ */
+@Getter
+@RequiredArgsConstructor
+public class FoundPage {
+    private final Integer id;
+    private final String path;
+    private final String title;
+    private final String plainText;
+}
@@ -1,94 +1,254 @@
 package searchengine.services;
 
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import searchengine.index.IndexUpdate;
+import searchengine.index.SearchIndexEngine;
 import searchengine.model.IndexEntity;
-import searchengine.model.LemmaEntity;
 import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
-import searchengine.parser.LemmaFinder;
+import searchengine.parser.CrawledPage;
+import searchengine.parser.LemmaDictionary;
+import searchengine.parser.Positions;
+import searchengine.parser.StoredPage;
+import searchengine.parser.UrlCanonicalizer;
+import searchengine.repository.BulkIndexRepository;
 import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class IndexingPageService {
-    public static final Object LEMMA_LOCK = new Object();
 
-    private final LemmaRepository lemmaRepository;
     private final IndexRepository indexRepository;
     private final PageRepository pageRepository;
-    private final LemmaFinder lemmaFinder;
+    private final BulkIndexRepository bulkIndexRepository;
+    private final EntityManager entityManager;
+    private final SearchIndexEngine searchIndexEngine;
+    private final SearchCache searchCache;
 
+    /**
+     * Кладёт в словарь сайта id лемм страниц, которых в нём ещё нет, создавая недостающие леммы.
+     * Вызывается перед {@link #indexPages} и {@link #replacePages} вне их транзакции.
+     */
+    public void resolveLemmaIds(SiteEntity site, List<CrawledPage> pages, LemmaDictionary dictionary) {
+        Set<String> unknown = new HashSet<>();
+        for (CrawledPage page : pages) {
+            if (page.getLemmas() != null) {
+                page.getLemmas().keySet().stream().filter(lemma -> dictionary.idOf(lemma) == null).forEach(unknown::add);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            dictionary.putIds(bulkIndexRepository.resolveLemmaIds(site.getId(), unknown));
+        }
+    }
+
+    /**
+     * Сохраняет пачку страниц одного сайта несколькими многострочными запросами через
+     * {@link BulkIndexRepository}: страницы и индексы. Id лемм берутся из словаря сайта (их заранее
+     * кладёт туда {@link #resolveLemmaIds}; недостающие создаются в этой же транзакции), а изменения
+     * частот не пишутся в {@code lemmas}, а возвращаются вызывающему, чтобы он добавил их в словарь
+     * после фиксации транзакции. Изменившиеся страницы обновляются на месте, и трогается только
+     * разница между старым и новым набором лемм.
+     *
+     * @return изменения частот лемм
+     */
     @Transactional
-    public void indexPage(String url, String html, int statusCode, SiteEntity site) {
-        log.info("индексация и сбор лемм страницы {} началась", url);
+    public Map<String, Integer> indexPages(SiteEntity site, List<CrawledPage> pages, LemmaDictionary dictionary) {
+        entityManager.flush();
+        Map<String, Integer> frequencyDeltas = new HashMap<>();
+        List<IndexRow> newIndexes = new ArrayList<>();
+        List<Object[]> rankUpdates = new ArrayList<>();
+        List<Integer> removedIndexes = new ArrayList<>();
+        List<PageEntity> newPages = new ArrayList<>();
+        List<CrawledPage> newCrawledPages = new ArrayList<>();
+        IndexUpdate update = new IndexUpdate();
 
-        String path = getUrl(url).getPath();
-        if (path == null || path.isEmpty()) {
-            path = "/";
-        }
-        if (path.length() > 1 && path.endsWith("/")) {
-            path = path.substring(0, path.length() - 1);
+        for (CrawledPage page : pages) {
+            PageEntity pageEntity = toEntity(page, site);
+            if (page.getStored() != null) {
+                pageEntity.setId(page.getStored().getId());
+                if (bulkIndexRepository.updatePage(pageEntity)) {
+                    log.info("обновление страницы {}", page.getUrl());
+                    Map<String, IndexEntity> oldIndexes = new HashMap<>();
+                    for (IndexEntity index : indexRepository.findAllWithLemmaByPageId(pageEntity.getId())) {
+                        oldIndexes.put(index.getLemma().getLemma(), index);
+                    }
+                    for (var entry : page.getLemmas().entrySet()) {
+                        IndexEntity index = oldIndexes.remove(entry.getKey());
+                        byte[] positions = positionsOf(page, entry.getKey());
+                        if (index == null) {
+                            frequencyDeltas.merge(entry.getKey(), 1, Integer::sum);
+                            newIndexes.add(new IndexRow(pageEntity.getId(), entry.getKey(), entry.getValue(), positions));
+                        } else if (!index.getRank().equals(entry.getValue()) || positions != null
+                                || index.getPositions() != null) {
+                            rankUpdates.add(new Object[]{entry.getValue(), positions, index.getId()});
+                        }
+                    }
+                    for (IndexEntity index : oldIndexes.values()) {
+                        removedIndexes.add(index.getId());
+                        frequencyDeltas.merge(index.getLemma().getLemma(), -1, Integer::sum);
+                    }
+                    update.putPage(site.getId(), pageEntity.getId(), pageEntity.getTitle(), page.getLemmas(), oldIndexes.keySet());
+                    continue;
+                }
+                pageEntity.setId(null);
+            }
+            log.info("индексация и сбор лемм страницы {} началась", page.getUrl());
+            newPages.add(pageEntity);
+            newCrawledPages.add(page);
         }
 
-        PageEntity pageEntity = new PageEntity();
-        pageEntity.setSite(site);
-        pageEntity.setPath(path);
-        pageEntity.setCode(statusCode);
-        pageEntity.setContent(html);
-        pageRepository.save(pageEntity);
+        bulkIndexRepository.insertPages(site.getId(), newPages);
+        for (int i = 0; i < newPages.size(); i++) {
+            Integer pageId = newPages.get(i).getId();
+            update.putPage(site.getId(), pageId, newPages.get(i).getTitle(), newCrawledPages.get(i).getLemmas(), List.of());
+            for (var entry : newCrawledPages.get(i).getLemmas().entrySet()) {
+                frequencyDeltas.merge(entry.getKey(), 1, Integer::sum);
+                newIndexes.add(new IndexRow(pageId, entry.getKey(), entry.getValue(),
+                        positionsOf(newCrawledPages.get(i), entry.getKey())));
+            }
+        }
 
-        HashMap<String, Float> lemmaOnePage = lemmaFinder.collectLemmas(html);
+        List<String> unknown = new ArrayList<>();
+        for (IndexRow row : newIndexes) {
+            if (dictionary.idOf(row.lemma) == null) {
+                unknown.add(row.lemma);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            dictionary.putIds(bulkIndexRepository.resolveLemmaIds(site.getId(), new HashSet<>(unknown)));
+        }
 
-        for (var entry : lemmaOnePage.entrySet()) {
-            String textLemma = entry.getKey();
-            Float rank = entry.getValue();
+        List<Object[]> indexRows = new ArrayList<>(newIndexes.size());
+        for (IndexRow row : newIndexes) {
+            indexRows.add(new Object[]{row.pageId, dictionary.idOf(row.lemma), row.rank, row.positions});
+        }
+        bulkIndexRepository.insertIndexes(indexRows);
+        bulkIndexRepository.updateRanks(rankUpdates);
+        bulkIndexRepository.deleteIndexes(removedIndexes);
+        searchIndexEngine.applyAfterCommit(update);
+        searchCache.invalidateSiteAfterCommit(site.getId());
+        return frequencyDeltas;
+    }
 
-            LemmaEntity lemmaEntity = createLemma(textLemma, site);
-            createIndex(lemmaEntity, pageEntity, rank);
+    /**
+     * Заменяет страницы новыми версиями: новые версии вставляются целиком, а текущие лишь помечаются
+     * надгробием и сразу пропадают из поиска. Их индексы и частоты лемм разберёт {@link CompactionService}.
+     *
+     * @return изменения частот лемм новых версий
+     */
+    @Transactional
+    public Map<String, Integer> replacePages(SiteEntity site, List<CrawledPage> pages, LemmaDictionary dictionary) {
+        IndexUpdate update = new IndexUpdate();
+        for (CrawledPage page : pages) {
+            String path = UrlCanonicalizer.pathOf(UrlCanonicalizer.canonicalize(page.getUrl()));
+            PageEntity current = pageRepository.findPageByPathAndSiteAndTombstoneFalse(path, site);
+            if (current != null) {
+                bulkIndexRepository.markTombstone(current.getId());
+                update.deletePage(current.getId());
+            }
         }
+        searchIndexEngine.applyAfterCommit(update);
+        return indexPages(site, pages, dictionary);
     }
 
-    public URL getUrl(String url) {
-        URL currentUrl = null;
+    /**
+     * Сбрасывает накопленные в словаре частоты в таблицу {@code lemmas} и удаляет леммы,
+     * которые больше не встречаются ни на одной странице.
+     */
+    @Transactional
+    public void flushLemmas(SiteEntity site, LemmaDictionary dictionary) {
+        Map<String, Long> deltas = dictionary.drain();
+        if (deltas.isEmpty()) {
+            return;
+        }
         try {
-            currentUrl = new URL(url);
-        } catch (MalformedURLException e) {
-            System.err.println("Некорректный URL: " + e.getMessage());
+            bulkIndexRepository.upsertFrequencies(site.getId(), deltas);
+            searchCache.invalidateSiteAfterCommit(site.getId());
+            List<String> decreased = deltas.entrySet().stream()
+                    .filter(entry -> entry.getValue() < 0)
+                    .map(Map.Entry::getKey)
+                    .toList();
+            if (!decreased.isEmpty()) {
+                bulkIndexRepository.deleteUnusedLemmas(site.getId(), decreased);
+                dictionary.evict(decreased);
+            }
+        } catch (RuntimeException e) {
+            dictionary.restore(deltas);
+            throw e;
         }
-        return currentUrl;
+        log.debug("Частоты {} лемм сайта {} сохранены", deltas.size(), site.getUrl());
     }
+
+    /**
+     * Пересчитывает частоты лемм сайта по индексам, если накопленные изменения сохранить не удалось.
+     */
     @Transactional
-    public LemmaEntity createLemma(String textLemma, SiteEntity currentSite) {
-        LemmaEntity lemmaEntity = lemmaRepository.findLemmaByLemmaAndSite(textLemma, currentSite.getId())
-                .orElseGet(() -> {
-                    LemmaEntity newLemma = new LemmaEntity();
-                    newLemma.setSite(currentSite);
-                    newLemma.setLemma(textLemma);
-                    newLemma.setFrequency(0);
-                    return newLemma;
-                });
-        log.info("Before increment lemma {} freq={}", lemmaEntity.getLemma(), lemmaEntity.getFrequency());
-        lemmaEntity.setFrequency(lemmaEntity.getFrequency() + 1);
-        lemmaRepository.save(lemmaEntity);
-        log.info("After increment lemma {} freq={}", lemmaEntity.getLemma(), lemmaEntity.getFrequency());
-        return lemmaEntity;
+    public void recountFrequencies(SiteEntity site) {
+        bulkIndexRepository.recountFrequencies(site.getId());
+        searchCache.invalidateSiteAfterCommit(site.getId());
     }
-    @Transactional
-    public void createIndex(LemmaEntity lemma, PageEntity page, Float rank) {
-        IndexEntity indexEntity = new IndexEntity();
-        indexEntity.setLemma(lemma);
-        indexEntity.setPage(page);
-        indexEntity.setRank(rank);
-        indexRepository.save(indexEntity);
+
+    private static byte[] positionsOf(CrawledPage page, String lemma) {
+        Positions positions = page.getPositions() == null ? null : page.getPositions().get(lemma);
+        return positions == null ? null : positions.encode();
+    }
+
+    private PageEntity toEntity(CrawledPage page, SiteEntity site) {
+        PageEntity pageEntity = new PageEntity();
+        pageEntity.setSite(site);
+        pageEntity.setPath(UrlCanonicalizer.pathOf(UrlCanonicalizer.canonicalize(page.getUrl())));
+        pageEntity.setCode(page.getStatusCode());
+        pageEntity.setContent(page.getHtml());
+        pageEntity.setTitle(page.getDocument().getTitle());
+        pageEntity.setPlainText(page.getDocument().getText());
+        pageEntity.setEtag(page.getEtag());
+        pageEntity.setLastModified(page.getLastModified());
+        pageEntity.setContentHash(page.getContentHash());
+        return pageEntity;
+    }
+
+    /**
+     * Валидаторы всех сохранённых страниц сайта по каноническому URL для повторного обхода.
+     */
+    @Transactional(readOnly = true)
+    public Map<String, StoredPage> loadStoredPages(SiteEntity site) {
+        Map<String, StoredPage> stored = new HashMap<>();
+        try (Stream<StoredPage> pages = pageRepository.streamStoredPagesBySite(site)) {
+            pages.forEach(page -> {
+                String url = UrlCanonicalizer.canonicalize(site.getUrl() + page.getPath());
+                if (url != null) {
+                    stored.put(url, page);
+                }
+            });
+        }
+        return stored;
+    }
+
+    private static final class IndexRow {
+        private final Integer pageId;
+        private final String lemma;
+        private final Float rank;
+        private final byte[] positions;
+
+        private IndexRow(Integer pageId, String lemma, Float rank, byte[] positions) {
+            this.pageId = pageId;
+            this.lemma = lemma;
+            this.rank = rank;
+            this.positions = positions;
+        }
     }
 }
@@ -3,8 +3,9 @@ package searchengine.services;
 import searchengine.dto.statistics.IndexingResponse;
 
 public interface IndexingService {
-    IndexingResponse startIndexing();
+    IndexingResponse startIndexing(boolean incremental);
     IndexingResponse stopIndexing();
+    IndexingResponse resumeIndexing();
     IndexingResponse indexPage(String url);
     IndexingResponse deleteAllDataInBD();
 }
@@ -2,18 +2,31 @@ package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Connection;
-import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import searchengine.config.Frontier;
 import searchengine.config.Http;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
 import searchengine.dto.statistics.IndexingResponse;
 import searchengine.exceptions.ThreadException;
+import searchengine.index.SearchIndexEngine;
 import searchengine.model.*;
-import searchengine.parser.HtmlParser;
+import searchengine.parser.CrawlCheckpoint;
+import searchengine.parser.CrawledPage;
+import searchengine.parser.FrontierCheckpoint;
+import searchengine.parser.FrontierSeeder;
+import searchengine.parser.HostScheduler;
+import searchengine.parser.IndexingPipeline;
+import searchengine.parser.LemmaDictionary;
 import searchengine.parser.LemmaFinder;
+import searchengine.parser.PageDocument;
+import searchengine.parser.PageFetcher;
+import searchengine.parser.PageResponse;
+import searchengine.parser.SiteCrawler;
+import searchengine.parser.SitePipeline;
+import searchengine.parser.UrlCanonicalizer;
+import searchengine.repository.BulkIndexRepository;
 import searchengine.repository.IndexRepository;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
@@ -22,11 +35,12 @@ import searchengine.repository.SiteRepository;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -34,21 +48,35 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @RequiredArgsConstructor
 public class IndexingServiceImpl implements IndexingService {
 
-    private final ApplicationContext context;
     private final SitesList sitesList;
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
     private final IndexRepository indexRepository;
     private final LemmaRepository lemmaRepository;
+    private final BulkIndexRepository bulkIndexRepository;
     private final Http http;
     private final LemmaFinder lemmaFinder;
+    private final IndexingPageService indexingPageService;
+    private final IndexingPipeline indexingPipeline;
+    private final PageFetcher pageFetcher;
+    private final HostScheduler hostScheduler;
+    private final Frontier frontier;
+    private final FrontierCheckpoint frontierCheckpoint;
+    private final FrontierSeeder frontierSeeder;
+    private final SearchIndexEngine searchIndexEngine;
+    private final SearchCache searchCache;
+    private final Set<SiteCrawler> crawlers = ConcurrentHashMap.newKeySet();
     private final AtomicBoolean isIndexing = new AtomicBoolean(false);
     public static AtomicBoolean stopRequested = new AtomicBoolean(false);
     private volatile ExecutorService executorService;
     private volatile ForkJoinPool forkJoinPool;
 
+    /**
+     * Запускает индексацию всех сайтов из конфигурации. В инкрементальном режиме уже проиндексированные
+     * сайты не удаляются, а обходятся повторно: перезаписываются только изменившиеся страницы.
+     */
     @Override
-    public IndexingResponse startIndexing() {
+    public IndexingResponse startIndexing(boolean incremental) {
         IndexingResponse response = new IndexingResponse();
 
         if (!isIndexing.compareAndSet(false, true)) {
@@ -60,24 +88,99 @@ public class IndexingServiceImpl implements IndexingService {
         shutdownExecutors();
         stopRequested.set(false);
         response.setResult(true);
-        log.info("Запуск индексации");
+        log.info(incremental ? "Запуск инкрементальной индексации" : "Запуск индексации");
 
         List<Site> sites = sitesList.getSites();
         List<String> urls = sites.stream().map(Site::getUrl).toList();
+        Set<String> existing = incremental
+                ? siteRepository.findSiteByUrl(urls).stream().map(SiteEntity::getUrl).collect(Collectors.toSet())
+                : Set.of();
+
+        long cleanupStart = System.currentTimeMillis();
+        clearAllData(urls.stream().filter(url -> !existing.contains(url)).toList());
+        response.setCleanupTime(System.currentTimeMillis() - cleanupStart);
+        urls.forEach(frontierCheckpoint::delete);
+
+        startExecutors();
+        runForSites(sites, site -> {
+            if (existing.contains(site.getUrl())) {
+                updateSite(site.getUrl());
+            } else {
+                createSite(site.getUrl(), site.getName());
+                indexingPage(site.getUrl());
+            }
+        });
+        return response;
+    }
 
-        clearAllData(urls);
+    /**
+     * Продолжает прерванную индексацию с контрольных точек, не удаляя уже сохранённые страницы,
+     * леммы и индексы. Сайты без контрольной точки, кроме уже проиндексированных, индексируются заново.
+     */
+    @Override
+    public IndexingResponse resumeIndexing() {
+        IndexingResponse response = new IndexingResponse();
 
+        if (!isIndexing.compareAndSet(false, true)) {
+            response.setResult(false);
+            response.setError("Индексация уже запущена");
+            return response;
+        }
+
+        shutdownExecutors();
+        stopRequested.set(false);
+        response.setResult(true);
+        log.info("Продолжение индексации");
+
+        Map<String, CrawlCheckpoint> checkpoints = new HashMap<>();
+        List<Site> sites = new ArrayList<>();
+        for (Site site : sitesList.getSites()) {
+            Optional<SiteEntity> siteEntity = siteRepository.findSiteByUrl(site.getUrl());
+            Optional<CrawlCheckpoint> checkpoint = frontierCheckpoint.load(site.getUrl());
+            if (siteEntity.isPresent() && checkpoint.isPresent()) {
+                checkpoints.put(site.getUrl(), checkpoint.get());
+                sites.add(site);
+            } else if (siteEntity.isPresent() && siteEntity.get().getStatus() == Status.INDEXED) {
+                log.info("Сайт {} уже проиндексирован", site.getUrl());
+            } else {
+                sites.add(site);
+            }
+        }
+        long cleanupStart = System.currentTimeMillis();
+        clearAllData(sites.stream()
+                .map(Site::getUrl)
+                .filter(url -> !checkpoints.containsKey(url))
+                .toList());
+        response.setCleanupTime(System.currentTimeMillis() - cleanupStart);
+
+        startExecutors();
+        runForSites(sites, site -> {
+            CrawlCheckpoint checkpoint = checkpoints.get(site.getUrl());
+            if (checkpoint != null) {
+                log.info("Индексация сайта {} продолжается с контрольной точки", site.getUrl());
+                indexingPage(site.getUrl(), checkpoint);
+            } else {
+                createSite(site.getUrl(), site.getName());
+                indexingPage(site.getUrl());
+            }
+        });
+        return response;
+    }
+
+    private void startExecutors() {
         executorService = Executors.newFixedThreadPool(4);
         forkJoinPool = new ForkJoinPool();
+        indexingPipeline.start();
+    }
 
+    private void runForSites(List<Site> sites, Consumer<Site> task) {
         executorService.execute(() -> {
             try {
                 List<CompletableFuture<Void>> futures = sites.stream()
                         .map(site -> CompletableFuture.runAsync(() -> {
                             try {
                                 log.info("Началась индексация сайта {}", site.getUrl());
-                                createSite(site.getUrl(), site.getName());
-                                indexingPage(site.getUrl());
+                                task.accept(site);
                             } catch (Exception e) {
                                 log.error("Ошибка при индексации сайта {}: {}", site.getUrl(), e.getMessage(), e);
                             }
@@ -92,7 +195,6 @@ public class IndexingServiceImpl implements IndexingService {
                 log.info("Индексация завершена");
             }
         });
-        return response;
     }
 
     @Override
@@ -105,6 +207,7 @@ public class IndexingServiceImpl implements IndexingService {
         }
         stopRequested.set(true);
         log.warn("Запрошена остановка индексации");
+        frontierCheckpoint.saveAll();
         shutdownExecutors();
 
         siteRepository.findAll().forEach(site -> {
@@ -133,40 +236,19 @@ public class IndexingServiceImpl implements IndexingService {
 
         log.info("индексация и сбор лемм страницы {} началась", url);
         SiteEntity currentSite = findOrCreateSiteByUrl(url);
-        PageEntity currentPage = getPageByUrl(url, currentSite);
-
-        if (currentPage != null) {
-            deletePageInfo(currentPage);
-            log.info("Отчистили таблицы lemma, index, page");
-        }
-
-        Connection.Response response = lemmaFinder.getResponse(url);
-        String currentHtml = response.body();
-        int statusCode = response.statusCode();
-
-        String path = getUrl(url).getPath();
-        if (path == null || path.isEmpty()) {
-            path = "/";
-        }
-        if (path.length() > 1 && path.endsWith("/")) {
-            path = path.substring(0, path.length() - 1);
-        }
-
-        PageEntity pageEntity = new PageEntity();
-        pageEntity.setSite(currentSite);
-        pageEntity.setPath(path);
-        pageEntity.setCode(statusCode);
-        pageEntity.setContent(currentHtml);
-        pageRepository.save(pageEntity);
-
-        HashMap<String, Float> lemmaOnePage = lemmaFinder.collectLemmas(currentHtml);
-        for (var entry : lemmaOnePage.entrySet()) {
-            String textLemma = entry.getKey();
-            Float rank = entry.getValue();
 
-            LemmaEntity lemmaEntity = createLemma(textLemma, currentSite);
-            createIndex(lemmaEntity, pageEntity, rank);
-        }
+        PageResponse response = pageFetcher.fetch(getUrl(url).toString());
+        String currentHtml = response.getBody();
+        int statusCode = response.getStatusCode();
+
+        PageDocument document = PageDocument.parse(currentHtml, response.getBaseUrl());
+        CrawledPage page = new CrawledPage(getUrl(url).toString(), currentHtml, statusCode, document,
+                response.getEtag(), response.getLastModified(), document.contentHash(), null);
+        lemmaFinder.collectLemmas(page);
+        LemmaDictionary dictionary = new LemmaDictionary(0);
+        indexingPageService.resolveLemmaIds(currentSite, List.of(page), dictionary);
+        dictionary.addAll(indexingPageService.replacePages(currentSite, List.of(page), dictionary));
+        indexingPageService.flushLemmas(currentSite, dictionary);
         log.info("Индексация страницы {} завершена", url);
         indexingResponse.setResult(true);
         return indexingResponse;
@@ -174,42 +256,36 @@ public class IndexingServiceImpl implements IndexingService {
 
     @Override
     public IndexingResponse deleteAllDataInBD() {
-        indexRepository.deleteAll();
-        lemmaRepository.deleteAll();
-        pageRepository.deleteAll();
-        siteRepository.deleteAll();
+        long start = System.currentTimeMillis();
+        bulkIndexRepository.truncateAll();
+        searchIndexEngine.clear();
+        searchCache.invalidateAll();
+        sitesList.getSites().forEach(site -> frontierCheckpoint.delete(site.getUrl()));
         stopRequested.set(false);
         isIndexing.set(false);
         IndexingResponse indexingResponse = new IndexingResponse();
         indexingResponse.setResult(true);
+        indexingResponse.setCleanupTime(System.currentTimeMillis() - start);
+        log.info("Все данные удалены за {} мс", indexingResponse.getCleanupTime());
         return indexingResponse;
     }
+
+    /**
+     * Удаляет сайты вместе со страницами, индексами и леммами порциями, без загрузки страниц в память.
+     */
     @Transactional
     public void clearAllData(List<String> urls) {
-        List<SiteEntity> sites = siteRepository.findSiteByUrl(urls);
-        for (SiteEntity site : sites) {
-            List<PageEntity> pages = site.getPages();
-            indexRepository.deleteIndexByPage(pages);
+        if (urls.isEmpty()) {
+            return;
         }
-        lemmaRepository.deleteLemmaBySiteId(siteRepository.findSiteIdByUrl(urls));
-        pageRepository.deletePageBySiteId(siteRepository.findSiteIdByUrl(urls));
-        siteRepository.deleteSiteByUrls(urls);
-    }
-
-    @Transactional
-    public void deletePageInfo(PageEntity page) {
-        List<IndexEntity> indexes = indexRepository.findAllIndexByPageId(page.getId());
-        for (IndexEntity index : indexes) {
-            LemmaEntity lemmaEntity = index.getLemma();
-            lemmaEntity.setFrequency(lemmaEntity.getFrequency() - 1);
-            if (lemmaEntity.getFrequency() <= 0) {
-                lemmaRepository.delete(lemmaEntity);
-            } else {
-                lemmaRepository.save(lemmaEntity);
-            }
+        for (SiteEntity site : siteRepository.findSiteByUrl(urls)) {
+            long start = System.currentTimeMillis();
+            bulkIndexRepository.deleteSiteData(site.getId());
+            searchIndexEngine.clearSite(site.getId());
+            searchCache.invalidateSite(site.getId());
+            log.info("Данные сайта {} удалены за {} мс", site.getUrl(), System.currentTimeMillis() - start);
         }
-        indexRepository.deleteAll(indexes);
-        pageRepository.delete(page);
+        siteRepository.deleteSiteByUrls(urls);
     }
 
     public String extractName(String host) {
@@ -241,28 +317,6 @@ public class IndexingServiceImpl implements IndexingService {
                 });
     }
 
-    public LemmaEntity createLemma(String textLemma, SiteEntity currentSite) {
-        LemmaEntity lemmaEntity = lemmaRepository.findLemmaByLemmaAndSite(textLemma, currentSite.getId())
-                .orElseGet(() -> {
-                    LemmaEntity newLemma = new LemmaEntity();
-                    newLemma.setSite(currentSite);
-                    newLemma.setLemma(textLemma);
-                    newLemma.setFrequency(0);
-                    lemmaRepository.save(newLemma);
-                    return newLemma;
-                });
-        lemmaEntity.setFrequency(lemmaEntity.getFrequency() + 1);
-        lemmaRepository.save(lemmaEntity);
-        return lemmaEntity;
-    }
-
-    public void createIndex(LemmaEntity lemma, PageEntity page, Float rank) {
-        IndexEntity indexEntity = new IndexEntity();
-        indexEntity.setLemma(lemma);
-        indexEntity.setPage(page);
-        indexEntity.setRank(rank);
-        indexRepository.save(indexEntity);
-    }
     public URL getUrl(String url) {
         URL currentUrl = null;
         try {
@@ -288,14 +342,11 @@ public class IndexingServiceImpl implements IndexingService {
     }
 
     public PageEntity getPageByUrl(String url,SiteEntity site) {
-        String path = getUrl(url).getPath();
-        if (path == null || path.isEmpty()) {
-            path = "/";
-        }
-        if (path.length() > 1 && path.endsWith("/")) {
-            path = path.substring(0, path.length() - 1);
-        }
-        return pageRepository.findPageByPathAndSite(path, site);
+        return pageRepository.findPageByPathAndSiteAndTombstoneFalse(getPath(url), site);
+    }
+
+    public String getPath(String url) {
+        return UrlCanonicalizer.pathOf(UrlCanonicalizer.canonicalize(getUrl(url).toString()));
     }
 
     public SiteEntity createSite(String url, String name) {
@@ -309,15 +360,48 @@ public class IndexingServiceImpl implements IndexingService {
     }
 
     public void indexingPage(String url) {
+        crawlSite(url, false, (crawler, site) -> crawler.crawl(url));
+    }
+
+    /**
+     * Продолжает обход с контрольной точки. Частоты лемм сначала пересчитываются по индексам: изменения,
+     * не сброшенные из словаря конвейера до остановки, иначе потерялись бы, ведь сохранённые страницы повторно не пишутся.
+     */
+    public void indexingPage(String url, CrawlCheckpoint checkpoint) {
+        crawlSite(url, true, (crawler, site) -> {
+            indexingPageService.recountFrequencies(site);
+            crawler.resume(checkpoint, frontierCheckpoint.loadPersisted(site));
+        });
+    }
+
+    public void updateSite(String url) {
+        crawlSite(url, true, (crawler, site) -> crawler.recrawl(url, indexingPageService.loadStoredPages(site)));
+    }
+
+    private void crawlSite(String url, boolean restart, BiConsumer<SiteCrawler, SiteEntity> crawl) {
         SiteEntity site = siteRepository.findSiteByUrl(url).orElseThrow(() -> new IllegalStateException("Сайт не найден в БД: " + url));
-        Set<String> visitedUrl = ConcurrentHashMap.newKeySet();
+        if (restart) {
+            site.setStatus(Status.INDEXING);
+            site.setLastError("");
+            site.setStatusTime(LocalDateTime.now());
+            siteRepository.save(site);
+        }
+        SitePipeline pipeline = indexingPipeline.open(site);
+        Site siteSettings = sitesList.getSites().stream()
+                .filter(configured -> configured.getUrl().equals(url))
+                .findFirst()
+                .orElse(null);
+        SiteCrawler crawler = new SiteCrawler(site, siteSettings, pipeline, pageFetcher, forkJoinPool,
+                hostScheduler, frontier, frontierSeeder);
+        crawlers.add(crawler);
+        frontierCheckpoint.track(crawler);
         try {
             checkStopped();
-            forkJoinPool.invoke(new HtmlParser(context, url, site,
-                    pageRepository, siteRepository, indexRepository,
-                    lemmaRepository, lemmaFinder, sitesList,
-                    visitedUrl, http)
-            );
+            crawl.accept(crawler, site);
+            pipeline.finish();
+            checkStopped();
+            frontierCheckpoint.untrack(crawler);
+            frontierCheckpoint.delete(url);
             site.setStatus(Status.INDEXED);
             site.setLastError("");
 
@@ -332,6 +416,9 @@ public class IndexingServiceImpl implements IndexingService {
             log.error("Неожиданная ошибка при индексации сайта {} ", url, e);
 
         } finally {
+            crawlers.remove(crawler);
+            frontierCheckpoint.untrack(crawler);
+            indexingPipeline.close(pipeline);
             site.setStatusTime(LocalDateTime.now());
             siteRepository.save(site);
         }
@@ -344,6 +431,7 @@ public class IndexingServiceImpl implements IndexingService {
     }
 
     public void shutdownExecutors() {
+        crawlers.forEach(SiteCrawler::cancel);
         try {
             if (executorService != null && !executorService.isShutdown()) {
                 executorService.shutdownNow();
@@ -357,6 +445,7 @@ public class IndexingServiceImpl implements IndexingService {
                     log.warn("forkJoinPool не завершился вовремя");
                 }
             }
+            indexingPipeline.shutdownNow();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             log.warn("Ожидание завершения потоков прервано");
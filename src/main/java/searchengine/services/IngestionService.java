@@ -0,0 +1,418 @@
+package searchengine.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import searchengine.config.Ingestion;
+import searchengine.dto.statistics.IngestionResponse;
+import searchengine.exceptions.ReadingException;
+import searchengine.model.SiteEntity;
+import searchengine.parser.CrawledPage;
+import searchengine.parser.HostLimiter;
+import searchengine.parser.HostScheduler;
+import searchengine.parser.IngestionJournal;
+import searchengine.parser.LemmaDictionary;
+import searchengine.parser.LemmaFinder;
+import searchengine.parser.PageDocument;
+import searchengine.parser.PageFetcher;
+import searchengine.parser.PageResponse;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронная индексация отдельных страниц. Задание со списком адресов сначала записывается в
+ * {@link IngestionJournal}, и клиент сразу получает его id, а рабочие потоки забирают адреса из очередей
+ * пачками, загружают их параллельно и сохраняют одной транзакцией на сайт. Адреса одного хоста всегда
+ * попадают в одну очередь, поэтому две версии одной страницы не пишутся одновременно. Каждая загрузка
+ * занимает место у {@link HostLimiter} хоста, общего с обходом сайтов, так что темп запросов и паузы
+ * по 429/Retry-After соблюдаются и здесь.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestionService {
+    private static final int MAX_ERROR_LENGTH = 500;
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final int MAX_RETRIES = 3;
+    private static final long BUSY_WAIT_MILLIS = 20;
+
+    private final Ingestion settings;
+    private final IngestionJournal journal;
+    private final IndexingServiceImpl indexingService;
+    private final IndexingPageService indexingPageService;
+    private final PageFetcher pageFetcher;
+    private final HostScheduler hostScheduler;
+    private final LemmaFinder lemmaFinder;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Queue<String> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final List<BlockingQueue<Task>> queues = new ArrayList<>();
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Map<String, Job> replayed = new LinkedHashMap<>();
+        journal.replay(new IngestionJournal.Listener() {
+            @Override
+            public void onSubmit(String jobId, long createdAt, List<String> urls) {
+                replayed.put(jobId, new Job(jobId, createdAt, urls));
+            }
+
+            @Override
+            public void onDone(String jobId, int index, String error) {
+                Job job = replayed.get(jobId);
+                if (job != null) {
+                    job.complete(index, error);
+                }
+            }
+        });
+        replayed.values().removeIf(Job::isFinished);
+        journal.rewrite(listener -> replayed.values().forEach(job -> job.writeTo(listener)));
+
+        int workerCount = Math.max(1, settings.getWorkers());
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "ingestion-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+            queues.add(queue);
+            workers.execute(() -> runWorker(queue));
+        }
+        for (Job job : replayed.values()) {
+            jobs.put(job.id, job);
+            enqueue(job);
+        }
+        if (!replayed.isEmpty()) {
+            log.info("Из журнала восстановлено {} незавершённых заданий, {} адресов", replayed.size(), pending.get());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        journal.close();
+    }
+
+    /**
+     * Записывает задание в журнал и ставит его адреса в очередь.
+     */
+    public IngestionResponse submit(List<String> urls) {
+        IngestionResponse response = new IngestionResponse();
+        List<String> distinct = urls == null ? List.of() : urls.stream()
+                .filter(Objects::nonNull)
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .toList();
+        if (distinct.isEmpty()) {
+            response.setResult(false);
+            response.setError("Не указаны адреса страниц");
+            return response;
+        }
+        Job job = new Job(UUID.randomUUID().toString(), System.currentTimeMillis(), distinct);
+        synchronized (journal) {
+            try {
+                journal.submit(job.id, job.createdAt, job.urls);
+            } catch (IOException e) {
+                log.error("Не удалось записать задание в журнал: {}", e.getMessage(), e);
+                response.setResult(false);
+                response.setError("Не удалось записать задание в журнал");
+                return response;
+            }
+            jobs.put(job.id, job);
+            enqueue(job);
+        }
+        log.info("Задание {} принято: {} адресов", job.id, job.urls.size());
+        response.setResult(true);
+        response.setJobId(job.id);
+        response.setStatus("QUEUED");
+        response.setTotal(job.urls.size());
+        return response;
+    }
+
+    public IngestionResponse status(String jobId) {
+        IngestionResponse response = new IngestionResponse();
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            response.setResult(false);
+            response.setError("Задание не найдено");
+            return response;
+        }
+        response.setResult(true);
+        response.setJobId(job.id);
+        synchronized (job) {
+            response.setStatus(job.processed == 0 ? "QUEUED" : job.isFinished() ? "INDEXED" : "INDEXING");
+            response.setTotal(job.urls.size());
+            response.setProcessed(job.processed);
+            response.setFailed(job.failed);
+            response.setErrors(new ArrayList<>(job.errors));
+        }
+        return response;
+    }
+
+    private void enqueue(Job job) {
+        for (int i = 0; i < job.urls.size(); i++) {
+            if (!job.done.get(i)) {
+                pending.incrementAndGet();
+                String url = job.urls.get(i);
+                queues.get(Math.floorMod(hostOf(url).hashCode(), queues.size())).add(new Task(job, i, url));
+            }
+        }
+    }
+
+    private void runWorker(BlockingQueue<Task> queue) {
+        int batchSize = Math.max(1, settings.getBatchSize());
+        List<Task> batch = new ArrayList<>(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                process(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(List<Task> batch) throws InterruptedException {
+        Map<Task, String> errors = new HashMap<>();
+        Map<Task, CompletableFuture<PageResponse>> responses = new LinkedHashMap<>();
+        for (Task task : batch) {
+            if (!isAllowed(task.url)) {
+                errors.put(task, "Данная страница находится за пределами сайтов, указанных в конфигурационном файле");
+            } else {
+                responses.put(task, fetch(task.url));
+            }
+        }
+
+        Map<Integer, SiteBatch> sites = new LinkedHashMap<>();
+        for (var entry : responses.entrySet()) {
+            Task task = entry.getKey();
+            try {
+                PageResponse response = entry.getValue().join();
+                for (int attempt = 1; isThrottled(response) && attempt < MAX_RETRIES; attempt++) {
+                    response = fetch(task.url).join();
+                }
+                if (isThrottled(response)) {
+                    throw new ReadingException("Сервер ответил кодом " + response.getStatusCode()
+                            + " после " + MAX_RETRIES + " попыток");
+                }
+                PageDocument document = PageDocument.parse(response.getBody(), response.getBaseUrl());
+                CrawledPage page = new CrawledPage(response.getUrl(), response.getBody(), response.getStatusCode(), document,
+                        response.getEtag(), response.getLastModified(), document.contentHash(), null);
+                lemmaFinder.collectLemmas(page);
+                SiteEntity site = indexingService.findOrCreateSiteByUrl(response.getUrl());
+                sites.computeIfAbsent(site.getId(), id -> new SiteBatch(site))
+                        .add(indexingService.getPath(response.getUrl()), page, task);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                errors.put(task, messageOf(e));
+            }
+        }
+
+        for (SiteBatch siteBatch : sites.values()) {
+            try {
+                LemmaDictionary dictionary = new LemmaDictionary(0);
+                List<CrawledPage> pages = new ArrayList<>(siteBatch.pages.values());
+                indexingPageService.resolveLemmaIds(siteBatch.site, pages, dictionary);
+                dictionary.addAll(indexingPageService.replacePages(siteBatch.site, pages, dictionary));
+                indexingPageService.flushLemmas(siteBatch.site, dictionary);
+            } catch (Exception e) {
+                log.error("Ошибка при сохранении страниц сайта {}: {}", siteBatch.site.getUrl(), e.getMessage(), e);
+                siteBatch.tasks.forEach(task -> errors.put(task, messageOf(e)));
+            }
+        }
+        complete(batch, errors);
+    }
+
+    /**
+     * Ждёт места у ограничителя хоста и запускает загрузку; результат загрузки возвращается ограничителю.
+     */
+    private CompletableFuture<PageResponse> fetch(String url) throws InterruptedException {
+        HostLimiter limiter = hostScheduler.forHost(hostOf(url));
+        long delay;
+        while ((delay = limiter.tryAcquire()) != 0) {
+            Thread.sleep(delay == HostLimiter.BUSY ? BUSY_WAIT_MILLIS : delay);
+        }
+        long start = System.nanoTime();
+        return pageFetcher.fetchAsync(indexingService.getUrl(url).toString()).whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                limiter.onFailure(cause instanceof HttpTimeoutException);
+            } else if (isThrottled(response)) {
+                limiter.onThrottle(response.getRetryAfter());
+            } else {
+                limiter.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
+    }
+
+    private static boolean isThrottled(PageResponse response) {
+        return response.getStatusCode() == 429 || response.getStatusCode() == 503;
+    }
+
+    private void complete(List<Task> batch, Map<Task, String> errors) {
+        List<Object[]> records = new ArrayList<>(batch.size());
+        for (Task task : batch) {
+            records.add(new Object[]{task.job.id, task.index, errors.get(task)});
+        }
+        try {
+            journal.done(records);
+        } catch (IOException e) {
+            log.error("Не удалось записать в журнал результат {} адресов: {}", batch.size(), e.getMessage());
+        }
+        for (Task task : batch) {
+            Job job = task.job;
+            if (job.complete(task.index, errors.get(task)) && job.isFinished()) {
+                log.info("Задание {} выполнено: {} адресов, ошибок {}", job.id, job.urls.size(), job.failed);
+                retire(job);
+            }
+        }
+        if (pending.addAndGet(-batch.size()) == 0) {
+            compactJournal();
+        }
+    }
+
+    /**
+     * Когда очередь пуста, журнал переписывается с нуля, чтобы он не рос бесконечно. Проверка и запись
+     * задания идут под блокировкой журнала, поэтому принятое задание не может потеряться при очистке.
+     */
+    private void compactJournal() {
+        synchronized (journal) {
+            if (pending.get() != 0) {
+                return;
+            }
+            try {
+                journal.rewrite(listener -> {
+                });
+            } catch (IOException e) {
+                log.warn("Не удалось очистить журнал заданий: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void retire(Job job) {
+        finished.add(job.id);
+        while (finished.size() > settings.getRetainedJobs()) {
+            String oldest = finished.poll();
+            if (oldest != null) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+
+    private boolean isAllowed(String url) {
+        try {
+            return indexingService.getUrl(url) != null && indexingService.checkSiteUrl(url);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private String hostOf(String url) {
+        try {
+            return String.valueOf(indexingService.getUrl(url).getHost());
+        } catch (RuntimeException e) {
+            return url;
+        }
+    }
+
+    private static String messageOf(Exception e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        String message = cause instanceof ReadingException ? cause.getMessage() : cause.toString();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    private static final class Job {
+        private final String id;
+        private final long createdAt;
+        private final List<String> urls;
+        private final BitSet done;
+        private final List<String> errors = new ArrayList<>();
+        /**
+         * Ошибка по номеру адреса, чтобы переписанный журнал сохранил её.
+         */
+        private final Map<Integer, String> errorByIndex = new HashMap<>();
+        private int processed;
+        private int failed;
+
+        private Job(String id, long createdAt, List<String> urls) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.urls = urls;
+            this.done = new BitSet(urls.size());
+        }
+
+        /**
+         * @return {@code false}, если адрес уже был отмечен
+         */
+        private synchronized boolean complete(int index, String error) {
+            if (index < 0 || index >= urls.size() || done.get(index)) {
+                return false;
+            }
+            done.set(index);
+            processed++;
+            if (error != null) {
+                failed++;
+                errorByIndex.put(index, error);
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(urls.get(index) + ": " + error);
+                }
+            }
+            return true;
+        }
+
+        private synchronized boolean isFinished() {
+            return processed == urls.size();
+        }
+
+        private synchronized void writeTo(IngestionJournal.Listener listener) {
+            listener.onSubmit(id, createdAt, urls);
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+                listener.onDone(id, i, errorByIndex.get(i));
+            }
+        }
+    }
+
+    private static final class Task {
+        private final Job job;
+        private final int index;
+        private final String url;
+
+        private Task(Job job, int index, String url) {
+            this.job = job;
+            this.index = index;
+            this.url = url;
+        }
+    }
+
+    private static final class SiteBatch {
+        private final SiteEntity site;
+        private final Map<String, CrawledPage> pages = new LinkedHashMap<>();
+        private final List<Task> tasks = new ArrayList<>();
+
+        private SiteBatch(SiteEntity site) {
+            this.site = site;
+        }
+
+        /**
+         * Повторный адрес той же страницы в пачке заменяет предыдущий, чтобы не создать две живые версии.
+         */
+        private void add(String path, CrawledPage page, Task task) {
+            pages.put(path, page);
+            tasks.add(task);
+        }
+    }
+}
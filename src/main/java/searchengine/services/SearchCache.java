@@ -0,0 +1,181 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import searchengine.config.Search;
+import searchengine.dto.statistics.SearchCacheStatistics;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш ранжированных страниц сайта по набору лемм запроса — сегментированный LRU: новая запись
+ * попадает в испытательный сегмент и переходит в защищённый только при повторном обращении, поэтому
+ * поток разовых запросов не вытесняет популярные. Каждая запись помнит поколение своего сайта;
+ * индексация, уплотнение и очистка увеличивают поколение, и устаревшие записи отбрасываются при чтении.
+ */
+@Component
+@RequiredArgsConstructor
+public class SearchCache {
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final Search settings;
+    private final Map<Integer, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong epoch = new AtomicLong();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Поколение сайта; его нужно взять до расчёта, который потом кладётся в кэш.
+     */
+    public long generation(int siteId) {
+        return epoch.get() + generations.computeIfAbsent(siteId, id -> new AtomicLong()).get();
+    }
+
+    public synchronized RankedPages get(int siteId, Collection<String> lemmas) {
+        String key = key(siteId, lemmas);
+        Entry entry = protectedSegment.get(key);
+        if (entry == null) {
+            entry = probation.get(key);
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.generation != generation(siteId)) {
+            protectedSegment.remove(key);
+            probation.remove(key);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        if (probation.remove(key) != null) {
+            protectedSegment.put(key, entry);
+            int protectedCapacity = (int) (capacity() * PROTECTED_FRACTION);
+            Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+            while (protectedSegment.size() > Math.max(1, protectedCapacity)) {
+                Map.Entry<String, Entry> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            evict();
+        }
+        hits++;
+        return entry.pages;
+    }
+
+    /**
+     * Кладёт страницы в кэш, если сайт не менялся с поколения {@code generation} и страниц не слишком много.
+     */
+    public synchronized void put(int siteId, Collection<String> lemmas, long generation, RankedPages pages) {
+        if (capacity() <= 0 || pages.size() > settings.getCacheMaxPages() || generation != generation(siteId)) {
+            return;
+        }
+        String key = key(siteId, lemmas);
+        if (protectedSegment.containsKey(key)) {
+            protectedSegment.put(key, new Entry(generation, pages));
+            return;
+        }
+        probation.put(key, new Entry(generation, pages));
+        evict();
+    }
+
+    public void invalidateSite(int siteId) {
+        generations.computeIfAbsent(siteId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Сбрасывает поколение сайта после фиксации текущей транзакции или сразу, если транзакции нет.
+     * Сброс до фиксации не годится: поиск успел бы закэшировать старые данные под новым поколением.
+     */
+    public void invalidateSiteAfterCommit(int siteId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateSite(siteId);
+                }
+            });
+        } else {
+            invalidateSite(siteId);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        epoch.incrementAndGet();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    public synchronized SearchCacheStatistics getStatistics() {
+        SearchCacheStatistics statistics = new SearchCacheStatistics();
+        statistics.setSize(probation.size() + protectedSegment.size());
+        statistics.setHits(hits);
+        statistics.setMisses(misses);
+        statistics.setEvictions(evictions);
+        statistics.setInvalidations(invalidations);
+        return statistics;
+    }
+
+    private int capacity() {
+        return settings.getCacheSize();
+    }
+
+    private void evict() {
+        Iterator<String> eldest = probation.keySet().iterator();
+        while (probation.size() + protectedSegment.size() > capacity() && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static String key(int siteId, Collection<String> lemmas) {
+        return siteId + ":" + String.join(" ", lemmas);
+    }
+
+    /**
+     * Страницы сайта по убыванию релевантности, при равной — по возрастанию id.
+     */
+    public static final class RankedPages {
+        private final int[] pageIds;
+        private final float[] relevance;
+
+        public RankedPages(int[] pageIds, float[] relevance) {
+            this.pageIds = pageIds;
+            this.relevance = relevance;
+        }
+
+        public int size() {
+            return pageIds.length;
+        }
+
+        public int pageId(int index) {
+            return pageIds[index];
+        }
+
+        public float relevance(int index) {
+            return relevance[index];
+        }
+    }
+
+    private static final class Entry {
+        private final long generation;
+        private final RankedPages pages;
+
+        private Entry(long generation, RankedPages pages) {
+            this.generation = generation;
+            this.pages = pages;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package searchengine.services;
+
+import lombok.Getter;
+import searchengine.parser.LemmaFinder;
+import searchengine.parser.Positions;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Разобранный поисковый запрос: леммы всех его слов и ограничения на взаимное расположение слов —
+ * фразы в кавычках ({@code "купить велосипед"}) и близость ({@code велосипед NEAR/3 горный}).
+ * Ограничения проверяются по позициям лемм на странице.
+ */
+@Getter
+public class SearchQuery {
+    private static final Pattern PHRASE = Pattern.compile("\"([^\"]+)\"");
+    private static final Pattern NEAR = Pattern.compile("(\\S+)\\s+NEAR/(\\d+)\\s+(\\S+)");
+
+    /**
+     * Леммы запроса без повторов, по алфавиту.
+     */
+    private final List<String> lemmas;
+    private final List<Phrase> phrases;
+    private final List<Near> nears;
+
+    private SearchQuery(List<String> lemmas, List<Phrase> phrases, List<Near> nears) {
+        this.lemmas = lemmas;
+        this.phrases = phrases;
+        this.nears = nears;
+    }
+
+    public static SearchQuery parse(String query, LemmaFinder lemmaFinder) {
+        List<String> lemmas = new ArrayList<>(new TreeSet<>(lemmaFinder.collectLemmas(query).keySet()));
+        List<Phrase> phrases = new ArrayList<>();
+        Matcher phrase = PHRASE.matcher(query);
+        while (phrase.find()) {
+            List<String> words = lemmaFinder.lemmasByWord(phrase.group(1));
+            List<String> terms = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            for (int i = 0; i < words.size(); i++) {
+                if (words.get(i) != null) {
+                    terms.add(words.get(i));
+                    offsets.add(i);
+                }
+            }
+            if (terms.size() > 1) {
+                int first = offsets.get(0);
+                phrases.add(new Phrase(terms, offsets.stream().mapToInt(offset -> offset - first).toArray()));
+            }
+        }
+        List<Near> nears = new ArrayList<>();
+        Matcher near = NEAR.matcher(PHRASE.matcher(query).replaceAll(" "));
+        while (near.find()) {
+            String left = singleLemma(lemmaFinder, near.group(1));
+            String right = singleLemma(lemmaFinder, near.group(3));
+            if (left != null && right != null) {
+                nears.add(new Near(left, right, Integer.parseInt(near.group(2))));
+            }
+        }
+        return new SearchQuery(lemmas, phrases, nears);
+    }
+
+    public boolean hasConstraints() {
+        return !phrases.isEmpty() || !nears.isEmpty();
+    }
+
+    /**
+     * Ключ кэша выдачи: леммы и ограничения в нормальной форме.
+     */
+    public List<String> cacheKey() {
+        List<String> key = new ArrayList<>(lemmas);
+        phrases.forEach(phrase -> key.add(phrase.toString()));
+        nears.forEach(near -> key.add(near.toString()));
+        return key;
+    }
+
+    /**
+     * Выполнены ли все ограничения запроса на странице с такими позициями лемм.
+     */
+    public boolean matches(Map<String, Positions> positions) {
+        for (Phrase phrase : phrases) {
+            if (!phrase.matches(positions)) {
+                return false;
+            }
+        }
+        for (Near near : nears) {
+            if (!near.matches(positions)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Наименьшее расстояние в словах между первым и последним словом отрезка, где встречаются все леммы запроса.
+     *
+     * @return -1, если на странице есть не все леммы
+     */
+    public int span(Map<String, Positions> positions) {
+        List<int[]> words = new ArrayList<>();
+        for (int lemma = 0; lemma < lemmas.size(); lemma++) {
+            Positions lemmaPositions = positions.get(lemmas.get(lemma));
+            if (lemmaPositions == null) {
+                return -1;
+            }
+            for (int i = 0; i < lemmaPositions.size(); i++) {
+                words.add(new int[]{lemmaPositions.word(i), lemma});
+            }
+        }
+        words.sort(Comparator.comparingInt(word -> word[0]));
+        int[] counts = new int[lemmas.size()];
+        int covered = 0;
+        int best = -1;
+        int left = 0;
+        for (int[] word : words) {
+            if (counts[word[1]]++ == 0) {
+                covered++;
+            }
+            while (covered == lemmas.size()) {
+                int span = word[0] - words.get(left)[0];
+                best = best < 0 ? span : Math.min(best, span);
+                if (--counts[words.get(left)[1]] == 0) {
+                    covered--;
+                }
+                left++;
+            }
+        }
+        return best;
+    }
+
+    private static String singleLemma(LemmaFinder lemmaFinder, String word) {
+        List<String> lemmas = lemmaFinder.lemmasByWord(word);
+        return lemmas.size() == 1 ? lemmas.get(0) : null;
+    }
+
+    private static boolean containsWord(Positions positions, int word) {
+        int low = 0;
+        int high = positions.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (positions.word(middle) < word) {
+                low = middle + 1;
+            } else if (positions.word(middle) > word) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Леммы фразы и их сдвиги в словах от первой; служебные слова между ними пропускаются, но учитываются в сдвигах.
+     */
+    public static final class Phrase {
+        private final List<String> terms;
+        private final int[] offsets;
+
+        private Phrase(List<String> terms, int[] offsets) {
+            this.terms = terms;
+            this.offsets = offsets;
+        }
+
+        private boolean matches(Map<String, Positions> positions) {
+            List<Positions> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Positions termPositions = positions.get(term);
+                if (termPositions == null) {
+                    return false;
+                }
+                lists.add(termPositions);
+            }
+            Positions first = lists.get(0);
+            for (int i = 0; i < first.size(); i++) {
+                int start = first.word(i);
+                boolean found = true;
+                for (int term = 1; term < lists.size() && found; term++) {
+                    found = containsWord(lists.get(term), start + offsets[term]);
+                }
+                if (found) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("\"");
+            for (int i = 0; i < terms.size(); i++) {
+                result.append(i == 0 ? "" : " ").append(terms.get(i)).append('@').append(offsets[i]);
+            }
+            return result.append('"').toString();
+        }
+    }
+
+    /**
+     * Две леммы не дальше {@code distance} слов друг от друга, в любом порядке.
+     */
+    public static final class Near {
+        private final String left;
+        private final String right;
+        private final int distance;
+
+        private Near(String left, String right, int distance) {
+            this.left = left;
+            this.right = right;
+            this.distance = distance;
+        }
+
+        private boolean matches(Map<String, Positions> positions) {
+            Positions a = positions.get(left);
+            Positions b = positions.get(right);
+            if (a == null || b == null) {
+                return false;
+            }
+            int i = 0;
+            int j = 0;
+            while (i < a.size() && j < b.size()) {
+                if (Math.abs(a.word(i) - b.word(j)) <= distance) {
+                    return true;
+                }
+                if (a.word(i) < b.word(j)) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return left + " NEAR/" + distance + " " + right;
+        }
+    }
+}
@@ -1,31 +1,33 @@
 package searchengine.services;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Jsoup;
 import org.springframework.stereotype.Service;
+import searchengine.config.Search;
+import searchengine.config.SearchIndex;
 import searchengine.dto.statistics.Item;
 import searchengine.dto.statistics.SearchResponse;
 import searchengine.exceptions.ReadingException;
+import searchengine.index.IndexReader;
 import searchengine.model.LemmaEntity;
-import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
 import searchengine.parser.LemmaFinder;
+import searchengine.parser.Positions;
+import searchengine.repository.BulkIndexRepository;
 import searchengine.repository.IndexRepository;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class SearchService {
-    private static final int MIN_LENGTH_TOKEN = 3;
-    private static final int SNIPPET_RADIUS = 120;
     private static final double MAX_LEMMA_FRACTION = 0.8;
 
     private final LemmaFinder lemmaFinder;
@@ -33,10 +35,32 @@ public class SearchService {
     private final LemmaRepository lemmaRepository;
     private final SiteRepository siteRepository;
     private final IndexRepository indexRepository;
+    private final IndexReader indexReader;
+    private final Search settings;
+    private final SearchCache searchCache;
+    private final SnippetBuilder snippetBuilder;
+    private final BulkIndexRepository bulkIndexRepository;
+    private final SearchIndex searchIndex;
+    private ExecutorService searchExecutor;
+
+    @PostConstruct
+    public void start() {
+        int threads = Math.max(1, settings.getThreads());
+        searchExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, settings.getQueueCapacity())), runnable -> {
+            Thread thread = new Thread(runnable, "search-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+    }
 
     public SearchResponse search(String query, String site, int offset, int limit) {
         SearchResponse searchResponse = new SearchResponse();
-        List<Item> items = new ArrayList<>();
         if (query.isBlank()) {
             searchResponse.setResult(false);
             searchResponse.setError("Задан пустой поисковый запрос");
@@ -45,207 +69,251 @@ public class SearchService {
             return searchResponse;
         }
 
+        List<SiteEntity> sites;
         if (site != null && !site.isBlank()) {
-            SiteEntity siteEntity = siteRepository.findSiteByUrl(site).orElseThrow(() -> new ReadingException("Такой сайт еще не проиндексирован"));
-            items.addAll(getListItems(query,siteEntity));
+            sites = List.of(siteRepository.findSiteByUrl(site).orElseThrow(() -> new ReadingException("Такой сайт еще не проиндексирован")));
         } else {
-            List<SiteEntity> entityList = siteRepository.findAll();
-            for (SiteEntity s : entityList) {
-                items.addAll(getListItems(query, s));
-            }
+            sites = siteRepository.findAll();
+        }
+        long windowEnd = offset < 0 || limit <= 0 ? 0 : (long) offset + limit;
+        int capacity = (int) Math.min(windowEnd, Integer.MAX_VALUE);
+        TopHits topHits = new TopHits(capacity);
+        boolean partial = false;
+        SearchQuery searchQuery = SearchQuery.parse(query, lemmaFinder);
+        if (searchQuery.getLemmas().isEmpty()) {
+            sites = List.of();
+        }
+        if (sites.size() == 1) {
+            getHits(searchQuery, sites.get(0), topHits);
+        } else if (!sites.isEmpty()) {
+            partial = gatherHits(searchQuery, sites, capacity, topHits);
         }
-        if (items.isEmpty()) {
+        if (topHits.total == 0) {
             searchResponse.setCount(0);
             searchResponse.setData(List.of());
             searchResponse.setResult(true);
             searchResponse.setError("Ничего не найдено");
+            searchResponse.setPartial(partial ? true : null);
             return searchResponse;
         }
-        items.sort(Comparator.comparing(Item::getRelevance).reversed());
-        return makeLimitOrOffset(offset, limit, items);
+        searchResponse = makeLimitOrOffset(offset, limit, topHits, snippetBuilder.forLemmas(searchQuery.getLemmas()));
+        searchResponse.setPartial(partial ? true : null);
+        return searchResponse;
     }
 
-    public List<Item> getListItems(String query, SiteEntity site) {
-        List<LemmaEntity> descSortedLemmas = getFilteredLemmasOnSite(query, site);
-        if (descSortedLemmas.isEmpty()) {
-            return List.of();
+    /**
+     * Ищет по сайтам параллельно, каждый в свою кучу лучших страниц, и сливает их в {@code topHits}.
+     * Сайты, не успевшие к сроку {@code indexing.search.timeout} или не поместившиеся в очередь, отменяются,
+     * а сайты, поиск по которым упал, пропускаются.
+     *
+     * @return {@code true}, если выдача неполная
+     */
+    private boolean gatherHits(SearchQuery searchQuery, List<SiteEntity> sites, int capacity, TopHits topHits) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getTimeout());
+        boolean partial = false;
+        Map<SiteEntity, Future<TopHits>> futures = new LinkedHashMap<>();
+        for (SiteEntity site : sites) {
+            try {
+                futures.put(site, searchExecutor.submit(() -> {
+                    TopHits siteHits = new TopHits(capacity);
+                    getHits(searchQuery, site, siteHits);
+                    return siteHits;
+                }));
+            } catch (RejectedExecutionException e) {
+                log.warn("Поиск по сайту {} не поставлен в очередь: пул поиска перегружен", site.getUrl());
+                partial = true;
+            }
         }
-        List<PageEntity> crossPageList = getCrossPageList(descSortedLemmas);
-        if (crossPageList.isEmpty()) {
-            return List.of();
+        for (var entry : futures.entrySet()) {
+            try {
+                topHits.merge(entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                log.warn("Поиск по сайту {} не уложился в {} мс", entry.getKey().getUrl(), settings.getTimeout());
+                partial = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(future -> future.cancel(true));
+                throw new ReadingException("Поиск прерван");
+            } catch (ExecutionException e) {
+                log.error("Ошибка поиска по сайту {}: {}", entry.getKey().getUrl(), e.getCause().getMessage(), e.getCause());
+                partial = true;
+            }
         }
-        Map<PageEntity, Float> sortedMap = getSortedRelativeRelevance(crossPageList);
-        List<Item> items = new ArrayList<>();
+        return partial;
+    }
 
-        for (Map.Entry<PageEntity, Float> entrySet : sortedMap.entrySet()) {
-            PageEntity page = entrySet.getKey();
-            float relevance = entrySet.getValue();
-            Item item = new Item();
-            item.setSite(site.getUrl());
-            item.setSiteName(site.getName());
-            item.setUri(page.getPath());
-            item.setTitle(getTitle(page.getContent()));
-            item.setSnippet(buildSnippet(page.getContent(), query));
-            item.setRelevance(relevance);
-            items.add(item);
+    /**
+     * Добавляет в {@code topHits} страницы сайта, на которых встречаются все леммы запроса,
+     * и выполнены фразы и {@code NEAR} запроса, с относительной релевантностью внутри сайта.
+     * Ранжированные страницы берутся из {@link SearchCache}, а при промахе считаются и кладутся туда.
+     */
+    public void getHits(SearchQuery searchQuery, SiteEntity site, TopHits topHits) {
+        List<String> cacheKey = searchQuery.cacheKey();
+        SearchCache.RankedPages pages = searchCache.get(site.getId(), cacheKey);
+        if (pages == null) {
+            long generation = searchCache.generation(site.getId());
+            pages = rankPages(searchQuery, site);
+            searchCache.put(site.getId(), cacheKey, generation, pages);
         }
-        return items;
+        topHits.addRanked(site, pages);
     }
 
-    public SearchResponse makeLimitOrOffset(int offset, int limit, List<Item> items) {
-        SearchResponse searchResponse = new SearchResponse();
-        int total = items.size();
-
-        if (offset < 0 || limit <= 0) {
-            searchResponse.setResult(false);
-            searchResponse.setData(List.of());
-            searchResponse.setError("Некорректные значения offset или limit");
-            searchResponse.setCount(total);
-            return searchResponse;
+    private SearchCache.RankedPages rankPages(SearchQuery searchQuery, SiteEntity site) {
+        List<LemmaEntity> descSortedLemmas = getFilteredLemmasOnSite(searchQuery.getLemmas(), site);
+        Map<Integer, Float> absoluteRelevance;
+        if (descSortedLemmas.isEmpty()) {
+            absoluteRelevance = Map.of();
+        } else if (indexReader.isReady()) {
+            absoluteRelevance = indexReader.search(site.getId(), descSortedLemmas.stream().map(LemmaEntity::getLemma).toList());
+        } else {
+            absoluteRelevance = getAbsoluteRelevance(descSortedLemmas);
         }
-
-        if (offset >= total) {
-            searchResponse.setCount(total);
-            searchResponse.setResult(true);
-            searchResponse.setData(List.of());
-            return searchResponse;
+        if (searchIndex.isPositions() && !absoluteRelevance.isEmpty()) {
+            absoluteRelevance = applyPositions(searchQuery, absoluteRelevance);
         }
-
-        int toIndex = Math.min(total, offset + limit);
-        List<Item> resultList = items.subList(offset, toIndex);
-
-        searchResponse.setResult(true);
-        searchResponse.setData(resultList);
-        searchResponse.setCount(total);
-        return searchResponse;
+        float maxRel = absoluteRelevance.isEmpty() ? 0 : Collections.max(absoluteRelevance.values());
+        List<Hit> hits = new ArrayList<>(absoluteRelevance.size());
+        absoluteRelevance.forEach((pageId, rel) -> hits.add(new Hit(site, pageId, maxRel == 0 ? 0 : rel / maxRel)));
+        hits.sort(TopHits.ORDER.reversed());
+        int[] pageIds = new int[hits.size()];
+        float[] relevance = new float[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            pageIds[i] = hits.get(i).pageId;
+            relevance[i] = hits.get(i).relevance;
+        }
+        return new SearchCache.RankedPages(pageIds, relevance);
     }
 
-    public String buildSnippet(String html, String query) {
-        String text = Jsoup.parse(html).text();
-        if (text.isBlank()) {
-            return "";
+    /**
+     * Отбрасывает страницы, где не выполнены фразы и {@code NEAR} запроса, и поднимает первые
+     * {@code indexing.search.rerank-depth} страниц тем выше, чем плотнее на них стоят слова запроса.
+     * Страницы, проиндексированные без позиций, не проверяются и не поднимаются.
+     */
+    private Map<Integer, Float> applyPositions(SearchQuery searchQuery, Map<Integer, Float> absoluteRelevance) {
+        boolean rerank = searchQuery.getLemmas().size() > 1 && settings.getProximityBoost() > 0;
+        if (!searchQuery.hasConstraints() && !rerank) {
+            return absoluteRelevance;
         }
-
-        Set<String> queryWords = Arrays.stream(query.split("\\s+"))
-                .map(String::strip)
-                .filter(token -> token.length() >= MIN_LENGTH_TOKEN)
-                .map(String::toLowerCase)
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        if (queryWords.isEmpty()) {
-            return cutRawSnippet(text, 0);
+        List<Integer> candidates = new ArrayList<>(absoluteRelevance.keySet());
+        candidates.sort(Comparator.comparing(absoluteRelevance::get, Comparator.reverseOrder()));
+        if (!searchQuery.hasConstraints()) {
+            candidates = candidates.subList(0, Math.min(candidates.size(), Math.max(0, settings.getRerankDepth())));
         }
-
-        String lowerText = text.toLowerCase();
-        int centerIndex = Integer.MAX_VALUE;
-
-        for (String word : queryWords) {
-            int idx = lowerText.indexOf(word);
-            if (idx >= 0 && idx < centerIndex) {
-                centerIndex = idx;
+        Map<Integer, Map<String, byte[]>> stored = bulkIndexRepository.findPositions(candidates, searchQuery.getLemmas());
+        Map<Integer, Float> result = new HashMap<>(absoluteRelevance);
+        int reranked = 0;
+        for (Integer pageId : candidates) {
+            Map<String, byte[]> pagePositions = stored.get(pageId);
+            if (pagePositions == null) {
+                continue;
+            }
+            Map<String, Positions> positions = decode(pagePositions);
+            if (!searchQuery.matches(positions)) {
+                result.remove(pageId);
+            } else if (rerank && reranked++ < settings.getRerankDepth()) {
+                int span = searchQuery.span(positions);
+                if (span > 0) {
+                    int words = searchQuery.getLemmas().size() - 1;
+                    float boost = 1 + settings.getProximityBoost() * words / Math.max(words, span);
+                    result.put(pageId, result.get(pageId) * boost);
+                }
             }
         }
-
-        if (centerIndex == Integer.MAX_VALUE) {
-            return cutRawSnippet(text, 0);
-        }
-        String rawSnippet = cutRawSnippet(text, centerIndex);
-
-        return highlightWords(rawSnippet, queryWords);
+        return result;
     }
 
-    private String highlightWords(String rawSnippet, Set<String> queryWords) {
-        String result = rawSnippet;
-
-        Set<String> sortedSet = queryWords.stream()
-                .sorted(Comparator.comparing(String::length).reversed())
-                .collect(Collectors.toCollection(LinkedHashSet::new));
+    private static Map<String, Positions> decode(Map<String, byte[]> stored) {
+        Map<String, Positions> positions = new HashMap<>();
+        stored.forEach((lemma, data) -> {
+            Positions decoded = Positions.decode(data);
+            if (decoded != null) {
+                positions.put(lemma, decoded);
+            }
+        });
+        return positions;
+    }
 
-        for (String word : sortedSet) {
-            String pattern = "(?iu)\\b" + Pattern.quote(word) + "\\b";
-            result = result.replaceAll(pattern, "<b>$0</b>");
+    /**
+     * Страницы, на которых встречаются все леммы запроса, одним сгруппированным запросом к БД.
+     * Абсолютная релевантность — сумма рангов лемм запроса на странице.
+     *
+     * @return абсолютная релевантность по id страницы
+     */
+    public Map<Integer, Float> getAbsoluteRelevance(List<LemmaEntity> lemmas) {
+        Map<Integer, Float> absoluteRelevance = new HashMap<>();
+        for (Object[] row : indexRepository.sumRanksOfPagesWithAllLemmas(lemmas, lemmas.size())) {
+            absoluteRelevance.put((Integer) row[0], ((Number) row[1]).floatValue());
         }
-        return result;
+        return absoluteRelevance;
     }
 
-    public String cutRawSnippet(String text, int centerIndex) {
-        int length = text.length();
-        int start;
+    private Item toItem(SiteEntity site, FoundPage page, SnippetBuilder.Highlighter highlighter,
+                        Map<String, Positions> positions, float relevance) {
+        Item item = new Item();
+        item.setSite(site.getUrl());
+        item.setSiteName(site.getName());
+        item.setUri(page.getPath());
+        String title = indexReader.isReady() ? indexReader.storedTitle(page.getId()) : null;
+        item.setTitle(title != null ? title : page.getTitle());
+        item.setSnippet(highlighter.snippet(page.getPlainText(), positions));
+        item.setRelevance(relevance);
+        return item;
+    }
 
-        if (centerIndex == 0) {
-            start = 0;
-        } else {
-            start = Math.max(0, centerIndex - SNIPPET_RADIUS);
-        }
-        int end = Math.min(length, centerIndex + SNIPPET_RADIUS);
+    /**
+     * Вырезает из лучших страниц окно {@code [offset, offset + limit)} и только для него читает
+     * страницы из БД и строит заголовки и сниппеты; сниппеты строятся по сохранённым позициям лемм, если они есть.
+     * Общее число найденных страниц точное.
+     */
+    public SearchResponse makeLimitOrOffset(int offset, int limit, TopHits topHits, SnippetBuilder.Highlighter highlighter) {
+        SearchResponse searchResponse = new SearchResponse();
+        int total = (int) Math.min(topHits.total, Integer.MAX_VALUE);
 
-        while (start > 0 && !Character.isWhitespace(text.charAt(start - 1))) {
-            start--;
-        }
-        while (end < length && !Character.isWhitespace(text.charAt(end - 1))) {
-            end++;
+        if (offset < 0 || limit <= 0) {
+            searchResponse.setResult(false);
+            searchResponse.setData(List.of());
+            searchResponse.setError("Некорректные значения offset или limit");
+            searchResponse.setCount(total);
+            return searchResponse;
         }
 
-        String rawSnippet = text.substring(start, end).trim();
-        StringBuilder result = new StringBuilder();
-
-        if (start > 0) {
-            result.append("...");
-        }
-        result.append(rawSnippet);
-        if (end < length) {
-            result.append("...");
+        if (offset >= total) {
+            searchResponse.setCount(total);
+            searchResponse.setResult(true);
+            searchResponse.setData(List.of());
+            return searchResponse;
         }
 
-        return result.toString();
-    }
-
-    public String getTitle(String html) {
-        return Jsoup.parse(html).select("title").text();
-    }
-
-    public Map<PageEntity, Float> getSortedRelativeRelevance(List<PageEntity> crossPageList) {
-        Map<PageEntity, Float> absRelMap = new HashMap<>();
-        for (PageEntity page : crossPageList) {
-            float absRel = indexRepository.findSumAllFrequenciesByPage(page);
-            absRelMap.put(page, absRel);
+        List<Hit> sorted = topHits.sorted();
+        List<Hit> window = sorted.subList(Math.min(offset, sorted.size()), sorted.size());
+        Map<Integer, FoundPage> pages = new HashMap<>();
+        for (FoundPage page : pageRepository.findFoundPagesByIdIn(window.stream().map(hit -> hit.pageId).toList())) {
+            pages.put(page.getId(), page);
         }
-        float maxRel = Collections.max(absRelMap.values());
-        Map<PageEntity, Float> relativeRelevance = new LinkedHashMap<>();
-        absRelMap.forEach((page, rel) -> {
-            float rr = (maxRel == 0) ? 0 : rel / maxRel;
-            relativeRelevance.put(page, rr);
-        });
-        return relativeRelevance.entrySet().stream()
-                .sorted(Map.Entry.<PageEntity, Float>comparingByValue().reversed())
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (oldValue, newValue) -> oldValue,
-                        LinkedHashMap::new));
-    }
-
-    public List<PageEntity> getCrossPageList(List<LemmaEntity> descSortedLemmas) {
-        if (descSortedLemmas.isEmpty()) {
-            return List.of();
+        Map<Integer, Map<String, byte[]>> positions = searchIndex.isPositions()
+                ? bulkIndexRepository.findPositions(pages.keySet(), highlighter.getLemmas())
+                : Map.of();
+        List<Item> resultList = new ArrayList<>(window.size());
+        for (Hit hit : window) {
+            FoundPage page = pages.get(hit.pageId);
+            if (page != null) {
+                resultList.add(toItem(hit.site, page, highlighter,
+                        decode(positions.getOrDefault(hit.pageId, Map.of())), hit.relevance));
+            }
         }
-        List<PageEntity> crossPageList = new ArrayList<>(indexRepository.findPagesByLemma(descSortedLemmas.get(0)));
 
-        for (int i = 1; i < descSortedLemmas.size() && !crossPageList.isEmpty(); i++) {
-            List<PageEntity> tempListPages = indexRepository.findPagesByLemma(descSortedLemmas.get(i));
-            crossPageList.retainAll(tempListPages);
-        }
-        return crossPageList;
+        searchResponse.setResult(true);
+        searchResponse.setData(resultList);
+        searchResponse.setCount(total);
+        return searchResponse;
     }
 
-    public List<LemmaEntity> getFilteredLemmasOnSite(String query, SiteEntity site) {
-
-        Set<String> queryLemmas = lemmaFinder.collectLemmas(query).keySet();
-
+    public List<LemmaEntity> getFilteredLemmasOnSite(Collection<String> queryLemmas, SiteEntity site) {
         if (queryLemmas.isEmpty()) {
             return List.of();
         }
-        long totalCountPages = pageRepository.countBySite(site);
+        long totalCountPages = pageRepository.countBySiteAndTombstoneFalse(site);
         long maxAllowedFrequency = Math.max(1, Math.round(totalCountPages * MAX_LEMMA_FRACTION));
 
         if (totalCountPages == 0) {
@@ -261,6 +329,70 @@ public class SearchService {
                 .sorted(Comparator.comparingInt(LemmaEntity::getFrequency))
                 .toList();
     }
-}
 
+    /**
+     * Найденная страница без заголовка и сниппета.
+     */
+    private static final class Hit {
+        private final SiteEntity site;
+        private final int pageId;
+        private final float relevance;
+
+        private Hit(SiteEntity site, int pageId, float relevance) {
+            this.site = site;
+            this.pageId = pageId;
+            this.relevance = relevance;
+        }
+    }
 
+    /**
+     * Считает все найденные страницы, но хранит только {@code capacity} лучших в куче,
+     * на вершине которой лежит худшая из них.
+     */
+    public static final class TopHits {
+        private static final Comparator<Hit> ORDER = Comparator.<Hit>comparingDouble(hit -> hit.relevance)
+                .thenComparing(hit -> -hit.pageId);
+
+        private final int capacity;
+        private final PriorityQueue<Hit> heap;
+        private long total;
+
+        public TopHits(int capacity) {
+            this.capacity = capacity;
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(capacity, 1024)), ORDER);
+        }
+
+        /**
+         * Ранжированные страницы сайта уже упорядочены, поэтому в кучу идут только первые {@code capacity}.
+         */
+        private void addRanked(SiteEntity site, SearchCache.RankedPages pages) {
+            total += pages.size();
+            for (int i = 0; i < Math.min(pages.size(), capacity); i++) {
+                push(new Hit(site, pages.pageId(i), pages.relevance(i)));
+            }
+        }
+
+        private void push(Hit hit) {
+            if (heap.size() < capacity) {
+                heap.add(hit);
+            } else if (capacity > 0 && ORDER.compare(hit, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(hit);
+            }
+        }
+
+        /**
+         * Добавляет лучшие страницы и общее число найденных из кучи другого сайта.
+         */
+        private void merge(TopHits other) {
+            total += other.total;
+            other.heap.forEach(this::push);
+        }
+
+        private List<Hit> sorted() {
+            List<Hit> hits = new ArrayList<>(heap);
+            hits.sort(ORDER.reversed());
+            return hits;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.parser.AhoCorasick;
+import searchengine.parser.LemmaFinder;
+import searchengine.parser.Positions;
+
+import java.util.*;
+
+/**
+ * Строит сниппеты по леммам запроса. Основы лемм ищутся в тексте страницы одним проходом автомата
+ * {@link AhoCorasick}; слово, начинающееся с основы, подсвечивается, только если одна из его нормальных
+ * форм — лемма запроса, поэтому находятся и словоформы. Из найденных слов выбирается окно, где больше
+ * всего разных лемм, а при равенстве — больше всего слов. Просматривается не больше {@link #MAX_SCAN_CHARS}
+ * символов и проверяется не больше {@link #MAX_CANDIDATES} слов, так что цена сниппета не зависит от размера страницы.
+ * Если у страницы сохранены позиции лемм, слова берутся прямо по их смещениям, без прохода по тексту.
+ */
+@Component
+@RequiredArgsConstructor
+public class SnippetBuilder {
+    private static final int WINDOW = 240;
+    private static final int MAX_SCAN_CHARS = 100_000;
+    private static final int MAX_CANDIDATES = 2_000;
+    private static final int MIN_STEM_LENGTH = 3;
+    private static final int WORD_BOUNDARY_SLACK = 20;
+
+    private final LemmaFinder lemmaFinder;
+
+    /**
+     * Подсветка для одного запроса: автомат строится один раз и используется для всех страниц выдачи.
+     * Не потокобезопасна.
+     */
+    public Highlighter forLemmas(Collection<String> lemmas) {
+        return new Highlighter(lemmas);
+    }
+
+    public final class Highlighter {
+        private final List<String> lemmas;
+        private final AhoCorasick automaton;
+        /**
+         * Номер леммы запроса для уже проверенных словоформ, -1 — не подходит.
+         */
+        private final Map<String, Integer> checkedWords = new HashMap<>();
+
+        private Highlighter(Collection<String> lemmas) {
+            this.lemmas = List.copyOf(lemmas);
+            List<String> stems = new ArrayList<>(this.lemmas.size());
+            for (String lemma : this.lemmas) {
+                stems.add(lemma.length() <= MIN_STEM_LENGTH
+                        ? lemma
+                        : lemma.substring(0, Math.max(MIN_STEM_LENGTH, lemma.length() - 2)));
+            }
+            this.automaton = new AhoCorasick(stems);
+        }
+
+        public List<String> getLemmas() {
+            return lemmas;
+        }
+
+        public String snippet(String text) {
+            return snippet(text, Map.of());
+        }
+
+        /**
+         * @param positions сохранённые позиции лемм страницы; для пустых слова ищутся автоматом
+         */
+        public String snippet(String text, Map<String, Positions> positions) {
+            if (text == null || text.isBlank()) {
+                return "";
+            }
+            List<int[]> matches = positions.isEmpty() ? findWords(text) : wordsAt(text, positions);
+            if (matches.isEmpty()) {
+                return cut(text, 0, Math.min(text.length(), WINDOW), List.of());
+            }
+            int[] window = bestWindow(matches);
+            int from = matches.get(window[0])[0];
+            int to = matches.get(window[1])[1];
+            int padding = Math.max(0, WINDOW - (to - from));
+            int start = Math.max(0, from - padding / 2);
+            int end = Math.min(text.length(), Math.max(to, start + WINDOW));
+            return cut(text, start, end, matches.subList(window[0], window[1] + 1));
+        }
+
+        /**
+         * Слова текста, нормальная форма которых — лемма запроса: {начало, конец, номер леммы}.
+         */
+        private List<int[]> findWords(String text) {
+            List<int[]> words = new ArrayList<>();
+            int[] candidates = {0};
+            int[] lastWordStart = {-1};
+            automaton.find(text, MAX_SCAN_CHARS, (patternId, start, end) -> {
+                if (start == lastWordStart[0] || (start > 0 && Character.isLetter(text.charAt(start - 1)))) {
+                    return true;
+                }
+                int wordEnd = end;
+                while (wordEnd < text.length() && Character.isLetter(text.charAt(wordEnd))) {
+                    wordEnd++;
+                }
+                int lemma = lemmaOf(text.substring(start, wordEnd).toLowerCase());
+                if (lemma >= 0) {
+                    lastWordStart[0] = start;
+                    words.add(new int[]{start, wordEnd, lemma});
+                }
+                return ++candidates[0] < MAX_CANDIDATES;
+            });
+            words.sort(Comparator.comparingInt(word -> word[0]));
+            return words;
+        }
+
+        /**
+         * Слова по смещениям из позиций: {начало, конец, номер леммы}. Слова заголовка пропускаются.
+         */
+        private List<int[]> wordsAt(String text, Map<String, Positions> positions) {
+            List<int[]> words = new ArrayList<>();
+            for (int lemma = 0; lemma < lemmas.size(); lemma++) {
+                Positions lemmaPositions = positions.get(lemmas.get(lemma));
+                if (lemmaPositions == null) {
+                    continue;
+                }
+                for (int i = 0; i < lemmaPositions.size() && words.size() < MAX_CANDIDATES; i++) {
+                    int start = lemmaPositions.offset(i);
+                    while (start >= 0 && start < text.length() && !Character.isLetter(text.charAt(start))) {
+                        start++;
+                    }
+                    if (start < 0 || start >= text.length()) {
+                        continue;
+                    }
+                    int end = start;
+                    while (end < text.length() && Character.isLetter(text.charAt(end))) {
+                        end++;
+                    }
+                    words.add(new int[]{start, end, lemma});
+                }
+            }
+            words.sort(Comparator.comparingInt(word -> word[0]));
+            return words;
+        }
+
+        private int lemmaOf(String word) {
+            return checkedWords.computeIfAbsent(word, key -> {
+                for (String form : lemmaFinder.normalForms(key)) {
+                    int index = lemmas.indexOf(form);
+                    if (index >= 0) {
+                        return index;
+                    }
+                }
+                return -1;
+            });
+        }
+
+        /**
+         * Скользящее окно по найденным словам.
+         *
+         * @return номера первого и последнего слова лучшего окна
+         */
+        private int[] bestWindow(List<int[]> words) {
+            int[] counts = new int[lemmas.size()];
+            int distinct = 0;
+            int bestScore = -1;
+            int[] best = {0, 0};
+            int left = 0;
+            for (int right = 0; right < words.size(); right++) {
+                if (counts[words.get(right)[2]]++ == 0) {
+                    distinct++;
+                }
+                while (words.get(right)[1] - words.get(left)[0] > WINDOW) {
+                    if (--counts[words.get(left)[2]] == 0) {
+                        distinct--;
+                    }
+                    left++;
+                }
+                int score = distinct * words.size() + (right - left + 1);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = new int[]{left, right};
+                }
+            }
+            return best;
+        }
+
+        private String cut(String text, int start, int end, List<int[]> highlighted) {
+            int limit = Math.max(0, start - WORD_BOUNDARY_SLACK);
+            while (start > limit && !Character.isWhitespace(text.charAt(start - 1))) {
+                start--;
+            }
+            limit = Math.min(text.length(), end + WORD_BOUNDARY_SLACK);
+            while (end < limit && !Character.isWhitespace(text.charAt(end - 1))) {
+                end++;
+            }
+            StringBuilder result = new StringBuilder(end - start + 16 + highlighted.size() * 7);
+            if (start > 0) {
+                result.append("...");
+            }
+            int position = start;
+            for (int[] word : highlighted) {
+                if (word[0] < position || word[1] > end) {
+                    continue;
+                }
+                result.append(text, position, word[0]).append("<b>").append(text, word[0], word[1]).append("</b>");
+                position = word[1];
+            }
+            result.append(text, position, end);
+            if (end < text.length()) {
+                result.append("...");
+            }
+            return result.toString().strip();
+        }
+    }
+}
@@ -7,6 +7,10 @@ import searchengine.dto.statistics.StatisticsData;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.dto.statistics.TotalStatistics;
 import searchengine.model.SiteEntity;
+import searchengine.parser.HostLimiter;
+import searchengine.parser.HostScheduler;
+import searchengine.parser.IndexingPipeline;
+import searchengine.parser.SitePipeline;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
@@ -23,6 +27,9 @@ public class StatisticsServiceImpl implements StatisticsService {
     private final LemmaRepository lemmaRepository;
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
+    private final IndexingPipeline indexingPipeline;
+    private final HostScheduler hostScheduler;
+    private final SearchCache searchCache;
 
     @Override
     public StatisticsResponse getStatistics() {
@@ -50,12 +57,18 @@ public class StatisticsServiceImpl implements StatisticsService {
             item.setLemmas(lemmas);
             item.setStatus(site.getStatus().toString());
             item.setError(site.getLastError());
+            indexingPipeline.findBySiteId(site.getId())
+                    .map(SitePipeline::getStatistics)
+                    .ifPresent(item::setPipeline);
+            hostScheduler.findByUrl(site.getUrl())
+                    .map(HostLimiter::getStatistics)
+                    .ifPresent(item::setHost);
             LocalDateTime localDateTime = site.getStatusTime();
             ZoneId zoneId = ZoneId.of("Europe/Moscow");
             long millis = localDateTime.atZone(zoneId).toInstant().toEpochMilli();
             item.setStatusTime(millis);
 
-            total.setPages((int) pageRepository.count());
+            total.setPages((int) pageRepository.countByTombstoneFalse());
             total.setLemmas((int) lemmaRepository.count());
             detailed.add(item);
         }
@@ -63,6 +76,7 @@ public class StatisticsServiceImpl implements StatisticsService {
         StatisticsResponse response = new StatisticsResponse();
         StatisticsData data = new StatisticsData();
         data.setTotal(total);
+        data.setSearchCache(searchCache.getStatistics());
         data.setDetailed(detailed);
         response.setStatistics(data);
         response.setResult(true);
@@ -0,0 +1,3 @@
+-- Поиск страниц по лемме и сумма рангов страницы читаются только из индекса, без обращения к строкам.
+ALTER TABLE search_index ADD INDEX idx_index_lemma_page (lemma_id, page_id, field_rank), ALGORITHM = INPLACE, LOCK = NONE;
+ALTER TABLE search_index ADD INDEX idx_index_page_lemma (page_id, lemma_id, field_rank), ALGORITHM = INPLACE, LOCK = NONE;
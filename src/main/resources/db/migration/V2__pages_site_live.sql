@@ -0,0 +1,2 @@
+-- Поиск живой версии страницы по пути, подсчёт и перебор живых страниц сайта.
+ALTER TABLE pages ADD INDEX idx_pages_site_live (site_id, tombstone, path), ALGORITHM = INPLACE, LOCK = NONE;
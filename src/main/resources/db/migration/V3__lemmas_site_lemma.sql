@@ -0,0 +1,2 @@
+-- Поиск леммы сайта и upsert частот. В новых базах ключ уже создан Hibernate по аннотации LemmaEntity.
+ALTER TABLE lemmas ADD UNIQUE INDEX uk_lemma_site (site_id, lemma), ALGORITHM = INPLACE, LOCK = NONE;
@@ -0,0 +1,14 @@
+-- Текст страниц хранится сжатым в plain_text_z (столбец создаёт Hibernate). Старый столбец plain_text,
+-- если он есть, переносится через COMPRESS() и удаляется.
+SET @has_plain_text = (SELECT COUNT(*) FROM information_schema.columns
+    WHERE table_schema = DATABASE() AND table_name = 'pages' AND column_name = 'plain_text');
+SET @copy_sql = IF(@has_plain_text > 0,
+    'UPDATE pages SET plain_text_z = COMPRESS(plain_text) WHERE plain_text_z IS NULL AND plain_text IS NOT NULL',
+    'DO 0');
+PREPARE copy_statement FROM @copy_sql;
+EXECUTE copy_statement;
+DEALLOCATE PREPARE copy_statement;
+SET @drop_sql = IF(@has_plain_text > 0, 'ALTER TABLE pages DROP COLUMN plain_text', 'DO 0');
+PREPARE drop_statement FROM @drop_sql;
+EXECUTE drop_statement;
+DEALLOCATE PREPARE drop_statement;
@@ -0,0 +1,63 @@
+package searchengine.parser;
+
+import searchengine.config.Frontier;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Замер памяти и скорости вставки {@link UrlFrontier}: канонизация и отметка встреченных адресов
+ * для {@code N} разных URL в одном потоке, и для сравнения — множество строк путей, которым обход
+ * пользовался раньше. Запуск:
+ *
+ * <pre>
+ * mvn -q test-compile
+ * java -Xmx4g -cp target/classes:target/test-classes searchengine.parser.FrontierBenchmark [urls]
+ * </pre>
+ *
+ * По умолчанию 10 000 000 адресов.
+ * Первый раунд — прогрев, цифры берутся из второго.
+ */
+public class FrontierBenchmark {
+    private static final int BASELINE_URLS = 2_000_000;
+
+    public static void main(String[] args) {
+        int urls = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Frontier settings = new Frontier();
+        settings.setExpectedUrls(1000);
+
+        for (int round = 1; round <= 2; round++) {
+            long before = usedHeap();
+            UrlFrontier frontier = new UrlFrontier(settings);
+            long start = System.nanoTime();
+            for (int i = 0; i < urls; i++) {
+                frontier.markSeen(UrlCanonicalizer.canonicalize(url(i)));
+            }
+            long elapsed = System.nanoTime() - start;
+            long after = usedHeap();
+            System.out.printf("раунд %d: %d адресов, %.2f млн вставок/с (с канонизацией), "
+                            + "таблица %.1f байт/URL, прирост кучи %.1f байт/URL%n",
+                    round, frontier.seenCount(), urls / (elapsed / 1e9) / 1e6,
+                    frontier.memoryBytes() / (double) urls, (after - before) / (double) urls);
+        }
+
+        long before = usedHeap();
+        Set<String> paths = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < BASELINE_URLS; i++) {
+            paths.add(UrlCanonicalizer.pathOf(UrlCanonicalizer.canonicalize(url(i))));
+        }
+        long after = usedHeap();
+        System.out.printf("ConcurrentHashMap.newKeySet путей, %d адресов: прирост кучи %.1f байт/URL%n",
+                paths.size(), (after - before) / (double) BASELINE_URLS);
+    }
+
+    private static String url(int i) {
+        return "https://www.example.com/catalog/section-" + (i % 1000) + "/item/" + i + "?utm_source=x&b=2&a=1#top";
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}